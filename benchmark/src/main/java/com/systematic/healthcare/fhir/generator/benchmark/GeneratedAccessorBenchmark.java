@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator.benchmark;
+
+import ca.uhn.fhir.model.dstu2.resource.Condition;
+import com.systematic.healthcare.fhir.generator.FileStructureDefinitionProvider;
+import com.systematic.healthcare.fhir.generator.GenerationListeners;
+import com.systematic.healthcare.fhir.generator.Generator;
+import com.systematic.healthcare.fhir.generator.GeneratorOptions;
+import com.systematic.healthcare.fhir.generator.StreamingSourceEmitter;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the accessors of a generated FunctioningCondition class as a server would on a freshly parsed resource, once
+ * with the default output and once with {@link GeneratorOptions#setAllocationFreeAccessors(boolean)}. Run with
+ * {@code -prof gc} to compare the allocation per operation.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeneratedAccessorBenchmark {
+
+    @Benchmark
+    public boolean isEmpty(GeneratedClassState state) {
+        return state.empty.isEmpty();
+    }
+
+    @Benchmark
+    public int readAccessors(GeneratedClassState state) throws Exception {
+        Condition condition = state.constructor.newInstance();
+        return condition.getIdentifier().size() + condition.getEvidence().size() + condition.getBodySite().size()
+                + (condition.isEmpty() ? 1 : 0);
+    }
+
+    /**
+     * Generates, compiles and loads the class in memory.
+     */
+    @State(Scope.Benchmark)
+    public static class GeneratedClassState {
+        @Param({"false", "true"})
+        public boolean allocationFree;
+
+        Constructor<? extends Condition> constructor;
+        Condition empty;
+
+        @Setup
+        public void compile() throws Exception {
+            File file = File.createTempFile("FunctioningCondition", ".xml");
+            try {
+                Files.copy(GeneratedAccessorBenchmark.class.getResourceAsStream("/FunctioningCondition.xml"),
+                        file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                GeneratorOptions options = new GeneratorOptions().setAllocationFreeAccessors(allocationFree);
+                JavaClassSource javaClass = Generator.generate(new FileStructureDefinitionProvider(ProfileState.PACKAGE, file),
+                        GenerationListeners.NONE, options);
+                constructor = compile(javaClass).asSubclass(Condition.class).getConstructor();
+                empty = constructor.newInstance();
+            } finally {
+                file.delete();
+            }
+        }
+
+        private static Class<?> compile(JavaClassSource javaClass) throws Exception {
+            StringBuilder source = new StringBuilder();
+            new StreamingSourceEmitter().emit(javaClass, source);
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            final Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+            JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(compiler.getStandardFileManager(diagnostics, null, null)) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind, FileObject sibling) {
+                    return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                            classes.put(className, bytes);
+                            return bytes;
+                        }
+                    };
+                }
+            };
+            final String sourceText = source.toString();
+            JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + javaClass.getName() + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return sourceText;
+                }
+            };
+            if (!compiler.getTask(null, fileManager, diagnostics, Collections.singletonList("-proc:none"), null, Collections.singletonList(sourceFile)).call()) {
+                throw new IllegalStateException("Generated class does not compile: " + diagnostics.getDiagnostics());
+            }
+            ClassLoader loader = new ClassLoader(GeneratedAccessorBenchmark.class.getClassLoader()) {
+                @Override
+                protected Class<?> findClass(String name) throws ClassNotFoundException {
+                    ByteArrayOutputStream bytes = classes.get(name);
+                    if (bytes == null) {
+                        throw new ClassNotFoundException(name);
+                    }
+                    return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+                }
+            };
+            return loader.loadClass(javaClass.getQualifiedName());
+        }
+    }
+}
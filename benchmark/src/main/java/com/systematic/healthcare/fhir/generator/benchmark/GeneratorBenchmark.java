@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator.benchmark;
+
+import com.systematic.healthcare.fhir.generator.FileStructureDefinitionProvider;
+import com.systematic.healthcare.fhir.generator.Generator;
+import com.systematic.healthcare.fhir.generator.StructureDefinitionProvider;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts a profile end to end, reading the definition from disk included. {@link #cold} measures the first
+ * conversion in a fresh JVM, {@link #warm} the steady state.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class GeneratorBenchmark {
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public JavaClassSource warm(ProviderState state) throws Exception {
+        return Generator.generate(state.provider);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(10)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public JavaClassSource cold(ProfileState state) throws Exception {
+        return Generator.generate(new FileStructureDefinitionProvider(ProfileState.PACKAGE, state.file));
+    }
+
+    /**
+     * Kept apart from {@link ProfileState} so the cold runs do not create the shared parser during setup.
+     */
+    @State(Scope.Benchmark)
+    public static class ProviderState {
+        StructureDefinitionProvider provider;
+
+        @Setup
+        public void createProvider(ProfileState profile) {
+            provider = new FileStructureDefinitionProvider(ProfileState.PACKAGE, profile.file);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Copies one of the bundled profiles to a temporary directory, so the providers read it from disk like they do in
+ * a build. {@code FunctioningCondition.xml} is the small profile from the dstu2 tests, the {@code Large*} profiles
+ * constrain every element of their resource.
+ */
+@State(Scope.Benchmark)
+public class ProfileState {
+    public static final String PACKAGE = "com.systematic.healthcare.fhir.generator.benchmark.generated";
+
+    @Param({"FunctioningCondition.xml", "LargeObservation.xml", "LargePatient.xml"})
+    public String profile;
+
+    public File directory;
+    public File file;
+
+    @Setup
+    public void copyProfile() throws IOException {
+        directory = Files.createTempDirectory("profile-benchmark").toFile();
+        file = new File(directory, profile);
+        try (InputStream in = ProfileState.class.getResourceAsStream("/" + profile)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown profile: " + profile);
+            }
+            Files.copy(in, file.toPath());
+        }
+    }
+
+    @TearDown
+    public void deleteProfile() {
+        file.delete();
+        directory.delete();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator.benchmark;
+
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import com.systematic.healthcare.fhir.generator.FileStructureDefinitionProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a profile from disk through {@link FileStructureDefinitionProvider#getDefinition()}. The cold run
+ * includes creating the shared FHIR context.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ProviderBenchmark {
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public StructureDefinition warm(ProviderState state) throws Exception {
+        return state.provider.getDefinition();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(10)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public StructureDefinition cold(ProfileState state) throws Exception {
+        return new FileStructureDefinitionProvider(ProfileState.PACKAGE, state.file).getDefinition();
+    }
+
+    @State(Scope.Benchmark)
+    public static class ProviderState {
+        FileStructureDefinitionProvider provider;
+
+        @Setup
+        public void createProvider(ProfileState profile) {
+            provider = new FileStructureDefinitionProvider(ProfileState.PACKAGE, profile.file);
+        }
+    }
+}
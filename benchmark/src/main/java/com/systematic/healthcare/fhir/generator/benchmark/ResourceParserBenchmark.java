@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator.benchmark;
+
+import ca.uhn.fhir.model.api.IResource;
+import com.systematic.healthcare.fhir.generator.ResourceParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reflects over the fields of a HAPI resource. Results are cached per class, so {@link #warm} measures the cached
+ * lookup and {@link #cold} the first reflective walk.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ResourceParserBenchmark {
+
+    @Param({"Condition", "Observation", "Patient"})
+    public String resource;
+
+    private Class<? extends IResource> resourceClass;
+
+    @Setup
+    public void loadClass() throws ClassNotFoundException {
+        resourceClass = Class.forName("ca.uhn.fhir.model.dstu2.resource." + resource).asSubclass(IResource.class);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Map<String, ResourceParser.FieldInfo> warm() {
+        return new ResourceParser().parseResource(resourceClass);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(10)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public Map<String, ResourceParser.FieldInfo> cold() {
+        return new ResourceParser().parseResource(resourceClass);
+    }
+}
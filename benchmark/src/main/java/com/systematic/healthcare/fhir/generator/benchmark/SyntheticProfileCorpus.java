@@ -0,0 +1,565 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator.benchmark;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeChildChoiceDefinition;
+import ca.uhn.fhir.context.RuntimeChildResourceDefinition;
+import ca.uhn.fhir.context.RuntimeResourceBlockDefinition;
+import ca.uhn.fhir.model.api.IDatatype;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.composite.ResourceReferenceDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import ca.uhn.fhir.model.dstu2.valueset.BindingStrengthEnum;
+import ca.uhn.fhir.model.dstu2.valueset.ConformanceResourceStatusEnum;
+import ca.uhn.fhir.model.dstu2.valueset.ExtensionContextEnum;
+import ca.uhn.fhir.model.dstu2.valueset.SlicingRulesEnum;
+import ca.uhn.fhir.model.dstu2.valueset.StructureDefinitionKindEnum;
+import ca.uhn.fhir.model.primitive.CodeDt;
+import ca.uhn.fhir.model.primitive.MarkdownDt;
+import ca.uhn.fhir.model.primitive.StringDt;
+import ca.uhn.fhir.model.primitive.UriDt;
+import com.systematic.healthcare.fhir.generator.StructureDefinitionParser;
+import org.hl7.fhir.instance.model.api.IBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Writes synthetic DSTU2 profiles and the extension definitions they reference, so scaling problems can be
+ * reproduced without sharing real implementation guides. Profiles constrain the elements of their base resource
+ * breadth first until the element budget is used; any remainder is filled with extensions on nested elements, so
+ * arbitrarily large profiles can be produced. The same settings and seed always give the same corpus.
+ * <p>
+ * From the command line: {@code SyntheticProfileCorpus <directory> [--elements=10000] [--profiles=1000] ...}, see
+ * {@link #main(String[])}.
+ */
+public class SyntheticProfileCorpus {
+    public static final String BASE_URL = "http://example.org/fhir/StructureDefinition/";
+    public static final String EXTENSION_PREFIX = "synthetic-extension-";
+    private static final String VALUE_SET_URL = "http://hl7.org/fhir/ValueSet/synthetic-";
+    private static final Set<String> UNCONSTRAINED = new LinkedHashSet<>(Arrays.asList(
+            "id", "meta", "implicitRules", "language", "text", "contained", "extension", "modifierExtension"));
+    private static final Set<String> DISCRIMINATOR_TYPES = new LinkedHashSet<>(Arrays.asList("uri", "code", "string"));
+    private static final Set<String> CODED_TYPES = new LinkedHashSet<>(Arrays.asList("code", "Coding", "CodeableConcept"));
+    private static final String[] EXTENSION_VALUE_TYPES = {"integer", "string", "boolean", "decimal", "code", "dateTime", "CodeableConcept", "Quantity"};
+    private static final BindingStrengthEnum[] BINDING_STRENGTHS = BindingStrengthEnum.values();
+    private static final int MAX_DEPTH = 6;
+
+    private final FhirContext context;
+    private List<String> resources = Arrays.asList("Condition", "Observation", "Patient");
+    private int profilesPerResource = 1;
+    private int elements = 100;
+    private int slicingDepth = 1;
+    private int slices = 2;
+    private int extensions = 2;
+    private double bindingDensity = 0.5;
+    private long seed = 1;
+
+    public SyntheticProfileCorpus() {
+        this(StructureDefinitionParser.getDefault().getContext());
+    }
+
+    public SyntheticProfileCorpus(FhirContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @param resources the base resources profiles are written for, e.g. {@code Observation}.
+     */
+    public SyntheticProfileCorpus setResources(List<String> resources) {
+        this.resources = new ArrayList<>(resources);
+        return this;
+    }
+
+    public SyntheticProfileCorpus setProfilesPerResource(int profilesPerResource) {
+        this.profilesPerResource = profilesPerResource;
+        return this;
+    }
+
+    /**
+     * @param elements the number of differential elements per profile. Profiles get more elements than this when the
+     *                 slices and extensions alone exceed it.
+     */
+    public SyntheticProfileCorpus setElements(int elements) {
+        this.elements = elements;
+        return this;
+    }
+
+    /**
+     * @param slicingDepth how deep slices are nested, 0 for no slicing. Nested slices slice a repeating element below
+     *                     the enclosing slice.
+     */
+    public SyntheticProfileCorpus setSlicingDepth(int slicingDepth) {
+        this.slicingDepth = slicingDepth;
+        return this;
+    }
+
+    /**
+     * @param slices the number of slices per sliced element.
+     */
+    public SyntheticProfileCorpus setSlices(int slices) {
+        this.slices = slices;
+        return this;
+    }
+
+    /**
+     * @param extensions the number of extensions added on the resource itself, each with its own definition.
+     */
+    public SyntheticProfileCorpus setExtensions(int extensions) {
+        this.extensions = extensions;
+        return this;
+    }
+
+    /**
+     * @param bindingDensity the fraction of coded elements that get a value set binding, between 0 and 1.
+     */
+    public SyntheticProfileCorpus setBindingDensity(double bindingDensity) {
+        this.bindingDensity = bindingDensity;
+        return this;
+    }
+
+    public SyntheticProfileCorpus setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Writes all profiles and the extension definitions they reference to the directory.
+     *
+     * @return the profile files, not including the extension definitions.
+     */
+    public List<File> write(File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        List<File> profiles = new ArrayList<>();
+        int extensionDefinitions = 0;
+        for (String resource : resources) {
+            for (int number = 1; number <= profilesPerResource; number++) {
+                StructureDefinition profile = createProfile(resource, number);
+                extensionDefinitions = Math.max(extensionDefinitions, countExtensionDefinitions(profile));
+                File file = new File(directory, profile.getName() + ".xml");
+                write(profile, file);
+                profiles.add(file);
+            }
+        }
+        for (int number = 1; number <= extensionDefinitions; number++) {
+            write(createExtension(number), new File(directory, EXTENSION_PREFIX + number + ".xml"));
+        }
+        return profiles;
+    }
+
+    public StructureDefinition createProfile(String resource, int number) {
+        Random random = new Random(seed * 31 + resource.hashCode() * 1009L + number);
+        List<Node> topLevel = createNodes(resource, context.getResourceDefinition(resource).getChildren(), 1);
+
+        StructureDefinition profile = new StructureDefinition();
+        String name = "Synthetic" + resource + number;
+        profile.setId(toId(name));
+        profile.setUrl(BASE_URL + toId(name));
+        profile.setName(name);
+        profile.setStatus(ConformanceResourceStatusEnum.DRAFT);
+        profile.setDescription("Synthetic profile " + number + " of " + resource);
+        profile.setFhirVersion("1.0.1");
+        profile.setKind(StructureDefinitionKindEnum.RESOURCE);
+        profile.setConstrainedType(resource);
+        profile.setAbstract(false);
+        profile.setBase("http://hl7.org/fhir/StructureDefinition/" + resource);
+
+        Node sliced = slicingDepth > 0 && slices > 0 ? findSliceable(topLevel) : null;
+        List<ElementDefinitionDt> sliceElements = new ArrayList<>();
+        if (sliced != null) {
+            addSlices(sliced, 1, "slice", sliceElements, random);
+        }
+
+        int budget = elements - 1 - extensions - sliceElements.size();
+        Set<Node> selected = selectBreadthFirst(topLevel, budget);
+        if (sliced != null) {
+            selected.add(sliced);
+        }
+        Map<Node, Integer> padding = distributePadding(topLevel, selected, budget - selected.size());
+
+        List<ElementDefinitionDt> differential = profile.getDifferential().getElement();
+        ElementDefinitionDt root = new ElementDefinitionDt();
+        root.setPath(resource).setShort(name).setMin(0).setMax("*");
+        root.addType().setCode(resource);
+        differential.add(root);
+        for (int i = 1; i <= extensions; i++) {
+            differential.add(createExtensionElement(resource + ".extension", "extension" + i, i));
+        }
+        int[] padded = {0};
+        for (Node node : topLevel) {
+            addElements(node, sliced, selected, padding, padded, differential, random);
+            if (node == sliced) {
+                differential.addAll(sliceElements);
+            }
+        }
+        return profile;
+    }
+
+    public StructureDefinition createExtension(int number) {
+        String id = EXTENSION_PREFIX + number;
+        String valueType = EXTENSION_VALUE_TYPES[(number - 1) % EXTENSION_VALUE_TYPES.length];
+        StructureDefinition extension = new StructureDefinition();
+        extension.setId(id);
+        extension.setUrl(BASE_URL + id);
+        extension.setName("Synthetic extension " + number);
+        extension.setStatus(ConformanceResourceStatusEnum.DRAFT);
+        extension.setDescription("Synthetic extension with a " + valueType + " value");
+        extension.setFhirVersion("1.0.1");
+        extension.setKind(StructureDefinitionKindEnum.DATA_TYPE);
+        extension.setConstrainedType("Extension");
+        extension.setAbstract(false);
+        extension.setContextType(ExtensionContextEnum.RESOURCE);
+        extension.addContext("Resource");
+        extension.setBase("http://hl7.org/fhir/StructureDefinition/Extension");
+
+        ElementDefinitionDt root = extension.getDifferential().addElement();
+        root.setPath("Extension").setShort("Synthetic extension " + number).setMin(0).setMax("1");
+        root.addType().setCode("Extension");
+        ElementDefinitionDt url = extension.getDifferential().addElement();
+        url.setPath("Extension.url").setMin(1).setMax("1").setFixed(new UriDt(BASE_URL + id));
+        url.addType().setCode("uri");
+        ElementDefinitionDt value = extension.getDifferential().addElement();
+        value.setPath("Extension.value[x]").setMin(1).setMax("1");
+        value.addType().setCode(valueType);
+        return extension;
+    }
+
+    private void write(StructureDefinition definition, File file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            context.newXmlParser().setPrettyPrint(true).encodeResourceToWriter(definition, out);
+        }
+    }
+
+    private void addElements(Node node, Node sliced, Set<Node> selected, Map<Node, Integer> padding, int[] padded,
+                             List<ElementDefinitionDt> differential, Random random) {
+        if (!selected.contains(node)) {
+            return;
+        }
+        ElementDefinitionDt element = createElement(node, random);
+        if (node == sliced) {
+            setSlicing(element, node);
+        }
+        differential.add(element);
+        Integer pads = padding.get(node);
+        for (int i = 0; pads != null && i < pads; i++) {
+            padded[0]++;
+            int extension = (padded[0] - 1) % Math.max(extensions, 1) + 1;
+            differential.add(createExtensionElement(node.path + ".extension", "pad" + padded[0], extension));
+        }
+        for (Node child : node.children) {
+            addElements(child, sliced, selected, padding, padded, differential, random);
+        }
+    }
+
+    private void addSlices(Node sliced, int level, String prefix, List<ElementDefinitionDt> out, Random random) {
+        Node discriminator = findDiscriminator(sliced);
+        for (int i = 1; i <= slices; i++) {
+            String name = prefix + i;
+            ElementDefinitionDt entry = new ElementDefinitionDt();
+            entry.setPath(sliced.path).setName(name).setShort("Slice " + name).setMin(0).setMax("1");
+            out.add(entry);
+            ElementDefinitionDt fixed = createElement(discriminator, random);
+            fixed.setMin(1).setFixed(createFixedValue(discriminator.types.get(0), name));
+            out.add(fixed);
+            Node nested = level < slicingDepth ? findSliceable(sliced.children) : null;
+            if (nested != null) {
+                ElementDefinitionDt nestedElement = createElement(nested, random);
+                setSlicing(nestedElement, nested);
+                out.add(nestedElement);
+                addSlices(nested, level + 1, name + "_", out, random);
+            }
+        }
+    }
+
+    private void setSlicing(ElementDefinitionDt element, Node node) {
+        String discriminator = findDiscriminator(node).name;
+        element.setShort(capitalize(node.name) + " slices");
+        element.getSlicing()
+                .addDiscriminator(discriminator)
+                .setDescription("Slices on " + discriminator)
+                .setOrdered(false)
+                .setRules(SlicingRulesEnum.OPEN);
+    }
+
+    private ElementDefinitionDt createElement(Node node, Random random) {
+        ElementDefinitionDt element = new ElementDefinitionDt();
+        element.setPath(node.path)
+                .setShort("Synthetic " + node.name)
+                .setDefinition((MarkdownDt) new MarkdownDt().setValue("Synthetic constraint on " + node.path + "."))
+                .setMin(node.min)
+                .setMax(node.max == -1 ? "*" : String.valueOf(node.max));
+        for (String type : node.types) {
+            element.addType().setCode(type);
+        }
+        if (node.summary) {
+            element.setIsSummary(true);
+        }
+        if (!Collections.disjoint(node.types, CODED_TYPES) && random.nextDouble() < bindingDensity) {
+            element.getBinding()
+                    .setStrength(BINDING_STRENGTHS[random.nextInt(BINDING_STRENGTHS.length)])
+                    .setDescription("Synthetic codes for " + node.name)
+                    .setValueSet(new ResourceReferenceDt(VALUE_SET_URL + toId(node.name)));
+        }
+        return element;
+    }
+
+    private ElementDefinitionDt createExtensionElement(String path, String name, int extension) {
+        ElementDefinitionDt element = new ElementDefinitionDt();
+        element.setPath(path).setName(name).setShort("Synthetic extension " + extension).setMin(0).setMax("1");
+        element.addType().setCode("Extension").addProfile(BASE_URL + EXTENSION_PREFIX + extension);
+        return element;
+    }
+
+    private static IDatatype createFixedValue(String type, String name) {
+        switch (type) {
+            case "uri":
+                return new UriDt(BASE_URL + "slice/" + name);
+            case "code":
+                return new CodeDt(name);
+            default:
+                return new StringDt(name);
+        }
+    }
+
+    private static int countExtensionDefinitions(StructureDefinition profile) {
+        int count = 0;
+        for (ElementDefinitionDt element : profile.getDifferential().getElement()) {
+            String url = element.getTypeFirstRep().getProfileFirstRep().getValue();
+            if (url != null && url.startsWith(BASE_URL + EXTENSION_PREFIX)) {
+                count = Math.max(count, Integer.parseInt(url.substring((BASE_URL + EXTENSION_PREFIX).length())));
+            }
+        }
+        return count;
+    }
+
+    private List<Node> createNodes(String parentPath, List<BaseRuntimeChildDefinition> children, int depth) {
+        List<Node> nodes = new ArrayList<>();
+        for (BaseRuntimeChildDefinition child : children) {
+            String name = child.getElementName();
+            if (UNCONSTRAINED.contains(name)) {
+                continue;
+            }
+            if (child instanceof RuntimeChildResourceDefinition) {
+                nodes.add(new Node(parentPath, name, child, Collections.singletonList("Reference")));
+            } else if (child instanceof RuntimeChildChoiceDefinition) {
+                Set<String> types = new LinkedHashSet<>();
+                for (Class<? extends IBase> type : sortByName(((RuntimeChildChoiceDefinition) child).getValidChildTypes())) {
+                    if (IResource.class.isAssignableFrom(type) || ResourceReferenceDt.class.equals(type)) {
+                        types.add("Reference");
+                    } else {
+                        types.add(getTypeCode(child.getChildElementDefinitionByDatatype(type)));
+                    }
+                }
+                nodes.add(new Node(parentPath, name + "[x]", child, new ArrayList<>(types)));
+            } else {
+                BaseRuntimeElementDefinition<?> definition = child.getChildByName(name);
+                if (definition == null) {
+                    continue;
+                }
+                String type = getTypeCode(definition);
+                Node node = new Node(parentPath, name, child, Collections.singletonList(type));
+                if (definition instanceof BaseRuntimeElementCompositeDefinition && !"Reference".equals(type) && depth < MAX_DEPTH) {
+                    node.children.addAll(createNodes(node.path, ((BaseRuntimeElementCompositeDefinition<?>) definition).getChildren(), depth + 1));
+                }
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private static String getTypeCode(BaseRuntimeElementDefinition<?> definition) {
+        if (definition instanceof RuntimeResourceBlockDefinition) {
+            return "BackboneElement";
+        } else if (ResourceReferenceDt.class.equals(definition.getImplementingClass())) {
+            return "Reference";
+        }
+        return definition.getName();
+    }
+
+    private static List<Class<? extends IBase>> sortByName(Set<Class<? extends IBase>> types) {
+        List<Class<? extends IBase>> sorted = new ArrayList<>(types);
+        Collections.sort(sorted, new Comparator<Class<?>>() {
+            @Override
+            public int compare(Class<?> a, Class<?> b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return sorted;
+    }
+
+    private static Set<Node> selectBreadthFirst(List<Node> topLevel, int budget) {
+        Set<Node> selected = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        Deque<Node> queue = new ArrayDeque<>(topLevel);
+        while (!queue.isEmpty() && selected.size() < budget) {
+            Node node = queue.poll();
+            selected.add(node);
+            queue.addAll(node.children);
+        }
+        return selected;
+    }
+
+    /**
+     * Spreads the elements left over after the whole resource is constrained as extensions over the selected
+     * elements with children, breadth first.
+     */
+    private static Map<Node, Integer> distributePadding(List<Node> topLevel, Set<Node> selected, int count) {
+        Map<Node, Integer> padding = new IdentityHashMap<>();
+        if (count <= 0) {
+            return padding;
+        }
+        List<Node> parents = new ArrayList<>();
+        Deque<Node> queue = new ArrayDeque<>(topLevel);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            if (selected.contains(node) && !node.children.isEmpty()) {
+                parents.add(node);
+            }
+            queue.addAll(node.children);
+        }
+        if (parents.isEmpty()) {
+            parents.addAll(selected);
+        }
+        for (int i = 0; i < count && !parents.isEmpty(); i++) {
+            Node parent = parents.get(i % parents.size());
+            Integer pads = padding.get(parent);
+            padding.put(parent, pads == null ? 1 : pads + 1);
+        }
+        return padding;
+    }
+
+    private static Node findSliceable(List<Node> nodes) {
+        Deque<Node> queue = new ArrayDeque<>(nodes);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            if (node.max != 1 && findDiscriminator(node) != null) {
+                return node;
+            }
+            queue.addAll(node.children);
+        }
+        return null;
+    }
+
+    /**
+     * @return the child slices are told apart by, preferring uris over codes over strings.
+     */
+    private static Node findDiscriminator(Node node) {
+        for (String type : DISCRIMINATOR_TYPES) {
+            for (Node child : node.children) {
+                if (child.types.equals(Collections.singletonList(type))) {
+                    return child;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String toId(String name) {
+        return name.replace("[x]", "").replaceAll("([a-z0-9])([A-Z])", "$1-$2").toLowerCase();
+    }
+
+    /**
+     * Usage: {@code SyntheticProfileCorpus <directory> [--resources=Condition,Observation] [--profiles-per-resource=1]
+     * [--elements=100] [--slicing-depth=1] [--slices=2] [--extensions=2] [--binding-density=0.5] [--seed=1]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SyntheticProfileCorpus <directory> [--resources=Condition,Observation] "
+                    + "[--profiles-per-resource=n] [--elements=n] [--slicing-depth=n] [--slices=n] [--extensions=n] "
+                    + "[--binding-density=0..1] [--seed=n]");
+            System.exit(1);
+        }
+        SyntheticProfileCorpus corpus = new SyntheticProfileCorpus();
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected --option=value: " + args[i]);
+            }
+            switch (option[0]) {
+                case "--resources":
+                    corpus.setResources(Arrays.asList(option[1].split(",")));
+                    break;
+                case "--profiles-per-resource":
+                    corpus.setProfilesPerResource(Integer.parseInt(option[1]));
+                    break;
+                case "--elements":
+                    corpus.setElements(Integer.parseInt(option[1]));
+                    break;
+                case "--slicing-depth":
+                    corpus.setSlicingDepth(Integer.parseInt(option[1]));
+                    break;
+                case "--slices":
+                    corpus.setSlices(Integer.parseInt(option[1]));
+                    break;
+                case "--extensions":
+                    corpus.setExtensions(Integer.parseInt(option[1]));
+                    break;
+                case "--binding-density":
+                    corpus.setBindingDensity(Double.parseDouble(option[1]));
+                    break;
+                case "--seed":
+                    corpus.setSeed(Long.parseLong(option[1]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option[0]);
+            }
+        }
+        List<File> profiles = corpus.write(new File(args[0]));
+        System.out.println("Wrote " + profiles.size() + " profiles to " + args[0]);
+    }
+
+    private static class Node {
+        final String path;
+        final String name;
+        final int min;
+        final int max;
+        final boolean summary;
+        final List<String> types;
+        final List<Node> children = new ArrayList<>();
+
+        Node(String parentPath, String name, BaseRuntimeChildDefinition child, List<String> types) {
+            this.path = parentPath + "." + name;
+            this.name = name;
+            this.min = child.getMin();
+            this.max = child.getMax();
+            this.summary = child.isSummary();
+            this.types = types;
+        }
+    }
+}
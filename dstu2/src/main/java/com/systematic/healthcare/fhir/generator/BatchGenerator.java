@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Converts a set of structure definitions in parallel. A failing profile is recorded in the {@link BatchResult}
+ * and does not abort the rest of the batch.
+ */
+public class BatchGenerator implements Closeable {
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    public BatchGenerator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchGenerator(int parallelism) {
+        this(new ForkJoinPool(parallelism), true);
+    }
+
+    /**
+     * Uses the given executor for the conversions. The executor is not shut down when this generator is closed.
+     */
+    public BatchGenerator(ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private BatchGenerator(ExecutorService executor, boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    public BatchResult generate(Collection<? extends StructureDefinitionProvider> providers) throws InterruptedException {
+        return generate(providers, GenerationListeners.NONE);
+    }
+
+    /**
+     * @param listener receives the phases of all conversions, from the threads of the executor.
+     */
+    public BatchResult generate(Collection<? extends StructureDefinitionProvider> providers, GenerationListener listener) throws InterruptedException {
+        return generate(providers, listener, new GeneratorOptions());
+    }
+
+    public BatchResult generate(Collection<? extends StructureDefinitionProvider> providers, GenerationListener listener,
+                                GeneratorOptions options) throws InterruptedException {
+        BatchResult result = new BatchResult();
+        generate(providers, null, listener, options, result);
+        return result;
+    }
+
+    /**
+     * Reads all definitions and the definitions they reference, see {@link GenerationPlanner}.
+     */
+    public GenerationPlan plan(Collection<? extends StructureDefinitionProvider> providers) throws InterruptedException {
+        return new GenerationPlanner(executor).plan(providers);
+    }
+
+    /**
+     * Generates the profiles of a plan wave by wave, from the definitions read while planning. The problems of the
+     * plan are recorded as failures without starting their conversion.
+     */
+    public BatchResult generate(GenerationPlan plan, GenerationListener listener, GeneratorOptions options) throws InterruptedException {
+        BatchResult result = new BatchResult();
+        for (Map.Entry<StructureDefinitionProvider, Exception> problem : plan.getProblems().entrySet()) {
+            result.addFailure(problem.getKey(), problem.getValue());
+        }
+        for (List<StructureDefinitionProvider> wave : plan.getWaves()) {
+            generate(wave, plan, listener, options, result);
+        }
+        return result;
+    }
+
+    private void generate(Collection<? extends StructureDefinitionProvider> providers, GenerationPlan plan, GenerationListener listener,
+                          GeneratorOptions options, BatchResult result) throws InterruptedException {
+        List<Conversion> conversions = new ArrayList<>(providers.size());
+        List<Future<JavaClassSource>> futures = new ArrayList<>(providers.size());
+        for (StructureDefinitionProvider provider : providers) {
+            StructureDefinitionProvider source = plan != null ? plan.getPlannedProvider(provider) : provider;
+            Conversion conversion = new Conversion(provider, source, listener, options);
+            conversions.add(conversion);
+            futures.add(executor.submit(conversion));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            Conversion conversion = conversions.get(i);
+            try {
+                JavaClassSource javaClass = futures.get(i).get();
+                result.addGenerated(conversion.provider, javaClass, conversion.parseEvent);
+            } catch (ExecutionException e) {
+                result.addFailure(conversion.provider, e.getCause());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private static class Conversion implements Callable<JavaClassSource>, GenerationListener {
+        private final StructureDefinitionProvider provider;
+        private final StructureDefinitionProvider source;
+        private final GenerationListener listener;
+        private final GeneratorOptions options;
+        private GenerationEvent parseEvent;
+
+        /**
+         * @param provider the provider the result is recorded under.
+         * @param source   the provider the definitions are read from.
+         */
+        Conversion(StructureDefinitionProvider provider, StructureDefinitionProvider source, GenerationListener listener, GeneratorOptions options) {
+            this.provider = provider;
+            this.source = source;
+            this.listener = listener;
+            this.options = options;
+        }
+
+        @Override
+        public JavaClassSource call() throws Exception {
+            return Generator.generate(source, this, options);
+        }
+
+        @Override
+        public void phaseCompleted(GenerationEvent event) {
+            if (event.getPhase() == GenerationPhase.PARSE) {
+                parseEvent = event;
+            }
+            listener.phaseCompleted(event);
+        }
+    }
+}
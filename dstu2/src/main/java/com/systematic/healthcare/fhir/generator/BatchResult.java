@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link BatchGenerator} run. Both maps keep the order in which the providers were submitted.
+ */
+public class BatchResult {
+    private final Map<StructureDefinitionProvider, JavaClassSource> generated = new LinkedHashMap<>();
+    private final Map<StructureDefinitionProvider, Throwable> failures = new LinkedHashMap<>();
+    private final Map<StructureDefinitionProvider, GenerationEvent> parsed = new LinkedHashMap<>();
+
+    void addGenerated(StructureDefinitionProvider provider, JavaClassSource javaClass, GenerationEvent parseEvent) {
+        generated.put(provider, javaClass);
+        parsed.put(provider, parseEvent);
+    }
+
+    void addFailure(StructureDefinitionProvider provider, Throwable failure) {
+        failures.put(provider, failure);
+    }
+
+    public Map<StructureDefinitionProvider, JavaClassSource> getGenerated() {
+        return Collections.unmodifiableMap(generated);
+    }
+
+    public Map<StructureDefinitionProvider, Throwable> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return the {@link GenerationPhase#PARSE} event of a generated profile, carrying its id and element count for
+     * reporting the phases that follow generation.
+     */
+    public GenerationEvent getParseEvent(StructureDefinitionProvider provider) {
+        return parsed.get(provider);
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Decorates a provider with a cache of referenced definitions keyed by their canonical url. Share one
+ * {@link ReferenceCache} between the providers of a batch to parse each extension definition only once.
+ * The cached definitions are shared between conversions and must be treated as read-only.
+ */
+public class CachingStructureDefinitionProvider implements StructureDefinitionProvider {
+    public static final long DEFAULT_MAXIMUM_SIZE = 1000;
+
+    private final StructureDefinitionProvider delegate;
+    private final ReferenceCache cache;
+
+    public CachingStructureDefinitionProvider(StructureDefinitionProvider delegate) {
+        this(delegate, new ReferenceCache(DEFAULT_MAXIMUM_SIZE));
+    }
+
+    public CachingStructureDefinitionProvider(StructureDefinitionProvider delegate, ReferenceCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public String getOutPackage() {
+        return delegate.getOutPackage();
+    }
+
+    @Override
+    public StructureDefinition getDefinition() throws IOException {
+        return delegate.getDefinition();
+    }
+
+    @Override
+    public StructureDefinition provideReferenceDefinition(final ElementDefinitionDt element) throws IOException {
+        String url = element.getTypeFirstRep().getProfileFirstRep().getValue();
+        if (url == null) {
+            return delegate.provideReferenceDefinition(element);
+        }
+        return cache.get(getCacheKey(url), new Callable<StructureDefinition>() {
+            @Override
+            public StructureDefinition call() throws Exception {
+                return delegate.provideReferenceDefinition(element);
+            }
+        });
+    }
+
+    /**
+     * @return the key a referenced definition is cached under, the url itself by default. Long lived caches can add
+     * the version of the source, so changed definitions are read again.
+     */
+    protected String getCacheKey(String url) throws IOException {
+        return url;
+    }
+
+    public ReferenceCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    /**
+     * A bounded, thread safe cache of referenced definitions. The least recently used entries are evicted
+     * once the maximum size is reached. Definitions that could not be found, or failed to load, are not cached, so
+     * they are looked up again on the next request.
+     */
+    public static class ReferenceCache {
+        private final Cache<String, StructureDefinition> cache;
+
+        public ReferenceCache(long maximumSize) {
+            cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+        }
+
+        StructureDefinition get(String url, Callable<StructureDefinition> loader) throws IOException {
+            try {
+                return cache.get(url, loader);
+            } catch (CacheLoader.InvalidCacheLoadException e) {
+                // The loader found nothing
+                return null;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Could not load definition " + url, e.getCause());
+            } catch (UncheckedExecutionException | ExecutionError e) {
+                throw new IllegalStateException("Could not load definition " + url, e.getCause());
+            }
+        }
+
+        /**
+         * @return hit, miss and eviction counters since the cache was created.
+         */
+        public CacheStats getStats() {
+            return cache.stats();
+        }
+
+        public long size() {
+            return cache.size();
+        }
+
+        public void invalidateAll() {
+            cache.invalidateAll();
+        }
+    }
+}
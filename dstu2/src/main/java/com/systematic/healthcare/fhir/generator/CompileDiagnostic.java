@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+/**
+ * A compile error in a generated class, located at the profile element the offending member was generated from.
+ */
+public class CompileDiagnostic {
+    private final String profile;
+    private final String className;
+    private final String elementPath;
+    private final long lineNumber;
+    private final String message;
+
+    CompileDiagnostic(String profile, String className, String elementPath, long lineNumber, String message) {
+        this.profile = profile;
+        this.className = className;
+        this.elementPath = elementPath;
+        this.lineNumber = lineNumber;
+        this.message = message;
+    }
+
+    /**
+     * @return the id of the profile, taken from the {@code @ResourceDef} of the class.
+     */
+    public String getProfile() {
+        return profile;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the path of the element, e.g. {@code Condition.bodySite}, or {@code Condition.extension:severityScore}
+     * for extensions. The root path for errors outside the generated fields and accessors.
+     */
+    public String getElementPath() {
+        return elementPath;
+    }
+
+    /**
+     * @return the line in the source as written by {@link StreamingSourceEmitter}, -1 if unknown.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return profile + " " + elementPath + " (" + className + ".java:" + lineNumber + "): " + message;
+    }
+}
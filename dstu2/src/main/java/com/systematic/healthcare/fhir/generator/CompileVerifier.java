@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.api.annotation.Child;
+import ca.uhn.fhir.model.api.annotation.Extension;
+import ca.uhn.fhir.model.api.annotation.ResourceDef;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.util.ElementUtil;
+import org.jboss.forge.roaster.model.source.AnnotationSource;
+import org.jboss.forge.roaster.model.source.AnnotationTargetSource;
+import org.jboss.forge.roaster.model.source.FieldSource;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.jboss.forge.roaster.model.source.MethodSource;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compiles generated classes in memory, so broken output is found when the profiles are converted rather than when
+ * the consuming project is built. All classes given to {@link #verify(Collection)} are compiled in one compilation
+ * task; neither sources nor class files are written to disk.
+ */
+public class CompileVerifier {
+    private final JavaCompiler compiler;
+    private final List<File> classpath;
+
+    /**
+     * Compiles against the class path of this JVM and the HAPI FHIR jars the generator was loaded with.
+     */
+    public CompileVerifier() {
+        this(systemClasspath());
+    }
+
+    /**
+     * @param classpath the HAPI FHIR jars and anything else the generated classes need.
+     * @throws IllegalStateException when running on a JRE without a system compiler.
+     */
+    public CompileVerifier(List<File> classpath) {
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No system Java compiler, verifying generated classes requires a JDK");
+        }
+        this.classpath = classpath;
+    }
+
+    /**
+     * @return the compile errors, empty if all classes compile.
+     */
+    public List<CompileDiagnostic> verify(Collection<JavaClassSource> javaClasses) throws IOException {
+        List<GeneratedSource> sources = new ArrayList<>();
+        for (JavaClassSource javaClass : javaClasses) {
+            sources.add(new GeneratedSource(javaClass));
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT, StandardCharsets.UTF_8)) {
+            standardManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+            JavaFileManager fileManager = new DiscardingFileManager(standardManager);
+            compiler.getTask(null, fileManager, diagnostics, Arrays.asList("-proc:none"), null, sources).call();
+        }
+        List<CompileDiagnostic> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+                continue;
+            }
+            if (diagnostic.getSource() instanceof GeneratedSource) {
+                errors.add(((GeneratedSource) diagnostic.getSource()).toCompileDiagnostic(diagnostic));
+            } else {
+                errors.add(new CompileDiagnostic(null, null, null, -1, diagnostic.getMessage(Locale.ROOT)));
+            }
+        }
+        return errors;
+    }
+
+    private static List<File> systemClasspath() {
+        List<File> files = new ArrayList<>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            files.add(new File(path));
+        }
+        // Build tools load HAPI FHIR in a class loader of their own, away from java.class.path
+        for (Class<?> hapiClass : Arrays.asList(ElementUtil.class, Patient.class)) {
+            CodeSource codeSource = hapiClass.getProtectionDomain().getCodeSource();
+            if (codeSource != null && "file".equals(codeSource.getLocation().getProtocol())) {
+                try {
+                    File location = new File(codeSource.getLocation().toURI());
+                    if (!files.contains(location)) {
+                        files.add(location);
+                    }
+                } catch (URISyntaxException e) {
+                    throw new IllegalStateException("Cannot locate " + hapiClass.getName(), e);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * A class rendered by {@link StreamingSourceEmitter}, remembering where each member starts in the source.
+     */
+    private static class GeneratedSource extends SimpleJavaFileObject implements StreamingSourceEmitter.MemberListener {
+        private final JavaClassSource javaClass;
+        private final StringBuilder source = new StringBuilder();
+        private final List<Integer> memberOffsets = new ArrayList<>();
+        private final List<AnnotationTargetSource<?, ?>> members = new ArrayList<>();
+
+        GeneratedSource(JavaClassSource javaClass) throws IOException {
+            super(URI.create("string:///" + javaClass.getQualifiedName().replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.javaClass = javaClass;
+            new StreamingSourceEmitter(this).emit(javaClass, source);
+        }
+
+        @Override
+        public void memberStarted(AnnotationTargetSource<?, ?> member) {
+            memberOffsets.add(source.length());
+            members.add(member);
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+
+        CompileDiagnostic toCompileDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic) {
+            AnnotationSource<JavaClassSource> resourceDef = javaClass.getAnnotation(ResourceDef.class);
+            String resource = resourceDef != null ? resourceDef.getStringValue("name") : null;
+            String profile = resourceDef != null ? resourceDef.getStringValue("id") : javaClass.getName();
+            String elementPath = null;
+            AnnotationTargetSource<?, ?> member = memberAt(diagnostic.getPosition());
+            if (member instanceof FieldSource) {
+                elementPath = elementPath(resource, (FieldSource<?>) member);
+            } else if (member instanceof MethodSource) {
+                FieldSource<JavaClassSource> field = accessedField((MethodSource<?>) member);
+                elementPath = field != null ? elementPath(resource, field) : null;
+            }
+            return new CompileDiagnostic(profile, javaClass.getName(), elementPath != null ? elementPath : resource,
+                    diagnostic.getLineNumber(), diagnostic.getMessage(Locale.ROOT));
+        }
+
+        private AnnotationTargetSource<?, ?> memberAt(long position) {
+            AnnotationTargetSource<?, ?> member = null;
+            for (int i = 0; i < memberOffsets.size() && memberOffsets.get(i) <= position; i++) {
+                member = members.get(i);
+            }
+            return member;
+        }
+
+        /**
+         * Finds the field of a generated accessor, e.g. {@code myIdentifier} for {@code getIdentifierFirstRep}.
+         */
+        private FieldSource<JavaClassSource> accessedField(MethodSource<?> method) {
+            String name = method.getName().replaceFirst("^(get|set|add)", "").replaceFirst("(FirstRep|Element)$", "");
+            for (FieldSource<JavaClassSource> field : javaClass.getFields()) {
+                if (field.getName().substring(2).equalsIgnoreCase(name)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+
+        private static String elementPath(String resource, FieldSource<?> field) {
+            AnnotationSource<?> child = field.getAnnotation(Child.class);
+            if (child == null) {
+                return null;
+            }
+            if (field.hasAnnotation(Extension.class)) {
+                return resource + ".extension:" + child.getStringValue("name");
+            }
+            return resource + "." + child.getStringValue("name");
+        }
+    }
+
+    /**
+     * Keeps the compiled classes out of the file system.
+     */
+    private static class DiscardingFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+        DiscardingFileManager(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wire format between {@link GeneratorClient} and {@link GeneratorDaemon}. Every connection carries a single
+ * command: a magic number, the command byte and, for {@link #GENERATE}, a {@link DaemonRequest}. The daemon answers
+ * with one {@link DaemonResult} per profile. Strings are written as length prefixed UTF-8, -1 for null.
+ * <p>
+ * The command is preceded by the token of the daemon, which only the user running it can read, see
+ * {@link GeneratorDaemon#getTokenFile}. Lengths and counts read from the peer are limited, so a broken or hostile
+ * peer cannot make the other side allocate arbitrary amounts of memory.
+ */
+final class DaemonProtocol {
+    static final int MAGIC = 0x46484952;
+    static final byte GENERATE = 1;
+    static final byte STOP = 2;
+    static final int MAX_STRING_LENGTH = 64 * 1024 * 1024;
+    static final int MAX_COUNT = 1024 * 1024;
+    static final int TOKEN_LENGTH = 32;
+
+    private DaemonProtocol() {
+    }
+
+    /**
+     * Writes the token to a new file only its owner can read.
+     */
+    static void writeToken(File file, byte[] token) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        Path path = file.toPath();
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, restrict the access as far as the platform allows
+            Files.createFile(path);
+            if (!file.setReadable(false, false) || !file.setReadable(true, true) || !file.setWritable(false, false) || !file.setWritable(true, true)) {
+                Files.delete(path);
+                throw new IOException("Could not restrict access to " + file);
+            }
+        }
+        Files.write(path, BaseEncoding.base16().encode(token).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static byte[] readToken(File file) throws IOException {
+        byte[] token;
+        try {
+            token = BaseEncoding.base16().decode(new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid daemon token in " + file, e);
+        }
+        if (token.length != TOKEN_LENGTH) {
+            throw new IOException("Invalid daemon token in " + file);
+        }
+        return token;
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < -1 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the number of elements of a list.
+     */
+    static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    static void writeEvents(DataOutput out, List<GenerationEvent> events) throws IOException {
+        out.writeInt(events.size());
+        for (GenerationEvent event : events) {
+            writeString(out, event.getProfile());
+            out.writeByte(event.getPhase().ordinal());
+            out.writeInt(event.getElementCount());
+            out.writeLong(event.getDurationNanos());
+            out.writeLong(event.getAllocatedBytes());
+        }
+    }
+
+    static List<GenerationEvent> readEvents(DataInput in) throws IOException {
+        int count = readCount(in);
+        List<GenerationEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String profile = readString(in);
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= GenerationPhase.values().length) {
+                throw new IOException("Invalid phase " + ordinal);
+            }
+            GenerationPhase phase = GenerationPhase.values()[ordinal];
+            events.add(new GenerationEvent(profile, phase, in.readInt(), in.readLong(), in.readLong()));
+        }
+        return events;
+    }
+}
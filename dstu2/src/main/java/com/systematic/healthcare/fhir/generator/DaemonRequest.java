@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of profiles for a {@link GeneratorDaemon} to convert. Profiles are read by the daemon, so paths must be
+ * valid on the machine it runs on.
+ */
+public class DaemonRequest {
+    private final String outPackage;
+    private final List<File> profiles;
+    private String emitter = SourceEmitters.ROASTER;
+    private File outDirectory;
+    private boolean allocationFreeAccessors;
+    private boolean verify;
+
+    public DaemonRequest(String outPackage, Collection<File> profiles) {
+        this.outPackage = outPackage;
+        this.profiles = new ArrayList<>();
+        for (File profile : profiles) {
+            this.profiles.add(profile.getAbsoluteFile());
+        }
+    }
+
+    public String getOutPackage() {
+        return outPackage;
+    }
+
+    public List<File> getProfiles() {
+        return Collections.unmodifiableList(profiles);
+    }
+
+    public String getEmitter() {
+        return emitter;
+    }
+
+    /**
+     * @param emitter the name of the emitter, see {@link SourceEmitters}.
+     */
+    public DaemonRequest setEmitter(String emitter) {
+        this.emitter = emitter;
+        return this;
+    }
+
+    public File getOutDirectory() {
+        return outDirectory;
+    }
+
+    /**
+     * @param outDirectory the source root the daemon writes the classes to, in directories matching the package. When
+     *                     not set the sources are returned in the {@link DaemonResult}s instead.
+     */
+    public DaemonRequest setOutDirectory(File outDirectory) {
+        this.outDirectory = outDirectory != null ? outDirectory.getAbsoluteFile() : null;
+        return this;
+    }
+
+    public boolean isAllocationFreeAccessors() {
+        return allocationFreeAccessors;
+    }
+
+    /**
+     * @see GeneratorOptions#setAllocationFreeAccessors(boolean)
+     */
+    public DaemonRequest setAllocationFreeAccessors(boolean allocationFreeAccessors) {
+        this.allocationFreeAccessors = allocationFreeAccessors;
+        return this;
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * @param verify compile each generated class with {@link CompileVerifier} before it is written, and fail the
+     *               profiles whose class does not compile.
+     */
+    public DaemonRequest setVerify(boolean verify) {
+        this.verify = verify;
+        return this;
+    }
+
+    GeneratorOptions toOptions() {
+        return new GeneratorOptions().setAllocationFreeAccessors(allocationFreeAccessors);
+    }
+
+    void write(DataOutput out) throws IOException {
+        DaemonProtocol.writeString(out, outPackage);
+        DaemonProtocol.writeString(out, emitter);
+        DaemonProtocol.writeString(out, outDirectory != null ? outDirectory.getPath() : null);
+        out.writeBoolean(allocationFreeAccessors);
+        out.writeBoolean(verify);
+        out.writeInt(profiles.size());
+        for (File profile : profiles) {
+            DaemonProtocol.writeString(out, profile.getPath());
+        }
+    }
+
+    static DaemonRequest read(DataInput in) throws IOException {
+        String outPackage = DaemonProtocol.readString(in);
+        String emitter = DaemonProtocol.readString(in);
+        String outDirectory = DaemonProtocol.readString(in);
+        boolean allocationFreeAccessors = in.readBoolean();
+        boolean verify = in.readBoolean();
+        int count = DaemonProtocol.readCount(in);
+        List<File> profiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            profiles.add(new File(DaemonProtocol.readString(in)));
+        }
+        DaemonRequest request = new DaemonRequest(outPackage, profiles).setEmitter(emitter)
+                .setAllocationFreeAccessors(allocationFreeAccessors).setVerify(verify);
+        return request.setOutDirectory(outDirectory != null ? new File(outDirectory) : null);
+    }
+}
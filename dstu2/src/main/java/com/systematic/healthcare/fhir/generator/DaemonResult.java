@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of converting one profile of a {@link DaemonRequest}.
+ */
+public class DaemonResult {
+    private final File profile;
+    private final String className;
+    private final String source;
+    private final File outputFile;
+    private final String failure;
+    private final List<File> referencedFiles;
+    private final List<GenerationEvent> events;
+
+    DaemonResult(File profile, String className, String source, File outputFile, String failure,
+                 List<File> referencedFiles, List<GenerationEvent> events) {
+        this.profile = profile;
+        this.className = className;
+        this.source = source;
+        this.outputFile = outputFile;
+        this.failure = failure;
+        this.referencedFiles = referencedFiles;
+        this.events = events;
+    }
+
+    public File getProfile() {
+        return profile;
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * @return the simple name of the generated class, null if the conversion failed.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the generated source, null if it was written to disk or the conversion failed.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the file the source was written to, null if it was returned or the conversion failed.
+     */
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * @return the stack trace of the failure, null if the conversion succeeded.
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the definition files of the extensions the profile references.
+     */
+    public List<File> getReferencedFiles() {
+        return Collections.unmodifiableList(referencedFiles);
+    }
+
+    public List<GenerationEvent> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    void write(DataOutput out) throws IOException {
+        DaemonProtocol.writeString(out, profile.getPath());
+        DaemonProtocol.writeString(out, className);
+        DaemonProtocol.writeString(out, source);
+        DaemonProtocol.writeString(out, outputFile != null ? outputFile.getPath() : null);
+        DaemonProtocol.writeString(out, failure);
+        out.writeInt(referencedFiles.size());
+        for (File file : referencedFiles) {
+            DaemonProtocol.writeString(out, file.getPath());
+        }
+        DaemonProtocol.writeEvents(out, events);
+    }
+
+    static DaemonResult read(DataInput in) throws IOException {
+        File profile = new File(DaemonProtocol.readString(in));
+        String className = DaemonProtocol.readString(in);
+        String source = DaemonProtocol.readString(in);
+        String outputFile = DaemonProtocol.readString(in);
+        String failure = DaemonProtocol.readString(in);
+        int count = DaemonProtocol.readCount(in);
+        List<File> referencedFiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            referencedFiles.add(new File(DaemonProtocol.readString(in)));
+        }
+        return new DaemonResult(profile, className, source, outputFile != null ? new File(outputFile) : null, failure,
+                referencedFiles, DaemonProtocol.readEvents(in));
+    }
+}
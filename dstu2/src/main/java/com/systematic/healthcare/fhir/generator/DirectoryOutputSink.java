@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes files below a directory. A file is only replaced if its content changed, and then through a temporary file
+ * in the same directory that is renamed over it, so readers never see a partially written file.
+ */
+public class DirectoryOutputSink implements OutputSink {
+    private final File root;
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    public DirectoryOutputSink(File root) {
+        this.root = root;
+    }
+
+    public File getFile(String path) {
+        return new File(root, path);
+    }
+
+    @Override
+    public boolean write(String path, byte[] content) throws IOException {
+        boolean changed = writeIfChanged(getFile(path), content);
+        (changed ? written : skipped).incrementAndGet();
+        return changed;
+    }
+
+    @Override
+    public int getWrittenCount() {
+        return written.get();
+    }
+
+    @Override
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return true if the file was written, false if it already had the content.
+     */
+    static boolean writeIfChanged(File target, byte[] content) throws IOException {
+        if (target.isFile() && target.length() == content.length && Arrays.equals(Files.readAllBytes(target.toPath()), content)) {
+            return false;
+        }
+        writeAtomically(target, content);
+        return true;
+    }
+
+    static void writeAtomically(File target, byte[] content) throws IOException {
+        Path tmp = createTempFile(target);
+        try {
+            Files.write(tmp, content);
+            moveAtomically(tmp, target.toPath());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Creates an empty file next to the target to be moved over it. The file gets the permissions of the target, or
+     * the default permissions of new files when there is no target yet; {@link Files#createTempFile} would make it
+     * readable by the owner only.
+     */
+    static Path createTempFile(File target) throws IOException {
+        Path directory = target.getAbsoluteFile().getParentFile().toPath();
+        Files.createDirectories(directory);
+        Path tmp;
+        while (true) {
+            tmp = directory.resolve(target.getName() + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.createFile(tmp);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Taken by another writer, try another name
+            }
+        }
+        PosixFileAttributeView attributes = Files.getFileAttributeView(target.toPath(), PosixFileAttributeView.class);
+        if (attributes != null && target.exists()) {
+            try {
+                Files.setPosixFilePermissions(tmp, attributes.readAttributes().permissions());
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+        }
+        return tmp;
+    }
+
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Reads the resource and datatype definitions shipped with hapi-fhir-structures-dstu2.
+ */
+final class Dstu2Model {
+    private static final String VERSION_PROPERTIES = "/ca/uhn/fhir/model/dstu2/fhirversion.properties";
+    static final String RESOURCE_PREFIX = "resource.";
+    static final String DATATYPE_PREFIX = "datatype.";
+
+    private Dstu2Model() {
+    }
+
+    /**
+     * @return definition name (without prefix) to implementing class name, for all keys with the given prefix.
+     */
+    static Map<String, String> definitions(String prefix) {
+        Properties properties = new Properties();
+        try (InputStream in = Dstu2Model.class.getResourceAsStream(VERSION_PROPERTIES)) {
+            if (in == null) {
+                throw new IllegalStateException("Cannot locate " + VERSION_PROPERTIES + " on the classpath");
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + VERSION_PROPERTIES, e);
+        }
+        Map<String, String> result = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                result.put(key.substring(prefix.length()), properties.getProperty(key).trim());
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+}
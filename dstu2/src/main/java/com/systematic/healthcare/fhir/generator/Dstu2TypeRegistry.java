@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.api.ExtensionDt;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.api.IResourceBlock;
+import ca.uhn.fhir.model.dstu2.composite.ResourceReferenceDt;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Resolves DSTU2 type codes such as {@code string}, {@code CodeableConcept}, {@code Reference} or {@code Condition}
+ * to the HAPI classes implementing them. The registry is built once from the definitions shipped with
+ * hapi-fhir-structures-dstu2; classes are loaded the first time their code is looked up.
+ * <p>
+ * {@code BackboneElement} resolves to {@link IResourceBlock}, as the concrete block class depends on the element
+ * it is used on.
+ */
+public final class Dstu2TypeRegistry {
+    private static final String PRIMITIVE_PACKAGE = "ca.uhn.fhir.model.primitive.";
+    private static final String DATATYPE_SUFFIX = "Dt";
+
+    public enum Kind {
+        PRIMITIVE, COMPOSITE, RESOURCE, BACKBONE
+    }
+
+    private final Map<String, Entry> entries;
+
+    private Dstu2TypeRegistry(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    public static Dstu2TypeRegistry getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the code is not a DSTU2 type code.
+     */
+    public Class<?> getType(String code) {
+        return getEntry(code).getType();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the code is not a DSTU2 resource.
+     */
+    public Class<? extends IResource> getResourceType(String code) {
+        Entry entry = getEntry(code);
+        if (entry.kind != Kind.RESOURCE || !IResource.class.isAssignableFrom(entry.getType())) {
+            throw new IllegalArgumentException("DSTU2 type code '" + code + "' is a " + entry.kind + ", not a resource");
+        }
+        return entry.getType().asSubclass(IResource.class);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the code is not a DSTU2 type code.
+     */
+    public Kind getKind(String code) {
+        return getEntry(code).kind;
+    }
+
+    public boolean contains(String code) {
+        return code != null && entries.containsKey(code);
+    }
+
+    public Set<String> getCodes() {
+        return entries.keySet();
+    }
+
+    private Entry getEntry(String code) {
+        Entry entry = code != null ? entries.get(code) : null;
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown DSTU2 type code '" + code + "'");
+        }
+        return entry;
+    }
+
+    private static Dstu2TypeRegistry load() {
+        Map<String, Entry> entries = new TreeMap<>();
+        for (Map.Entry<String, String> datatype : Dstu2Model.definitions(Dstu2Model.DATATYPE_PREFIX).entrySet()) {
+            String code = datatype.getKey();
+            String className = datatype.getValue();
+            if (code.equals("contained")) {
+                continue;
+            }
+            if (code.endsWith(DATATYPE_SUFFIX) && className.endsWith("." + code)) {
+                // HAPI registers some composites by class name only, e.g. AgeDt
+                code = code.substring(0, code.length() - DATATYPE_SUFFIX.length());
+            }
+            Kind kind = className.startsWith(PRIMITIVE_PACKAGE) ? Kind.PRIMITIVE : Kind.COMPOSITE;
+            entries.put(code, new Entry(kind, className));
+        }
+        for (Map.Entry<String, String> resource : Dstu2Model.definitions(Dstu2Model.RESOURCE_PREFIX).entrySet()) {
+            entries.put(resource.getKey(), new Entry(Kind.RESOURCE, resource.getValue()));
+        }
+        entries.put("Reference", new Entry(Kind.COMPOSITE, ResourceReferenceDt.class));
+        entries.remove("ResourceReference");
+        entries.put("Extension", new Entry(Kind.COMPOSITE, ExtensionDt.class));
+        entries.put("Resource", new Entry(Kind.RESOURCE, IResource.class));
+        entries.put("BackboneElement", new Entry(Kind.BACKBONE, IResourceBlock.class));
+        return new Dstu2TypeRegistry(ImmutableMap.copyOf(entries));
+    }
+
+    private static class Entry {
+        private final Kind kind;
+        private final String className;
+        private volatile Class<?> type;
+
+        Entry(Kind kind, String className) {
+            this.kind = kind;
+            this.className = className;
+        }
+
+        Entry(Kind kind, Class<?> type) {
+            this(kind, type.getName());
+            this.type = type;
+        }
+
+        Class<?> getType() {
+            Class<?> result = type;
+            if (result == null) {
+                try {
+                    result = Class.forName(className, false, Dstu2TypeRegistry.class.getClassLoader());
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException("Cannot load " + className + " registered by hapi-fhir-structures-dstu2", e);
+                }
+                type = result;
+            }
+            return result;
+        }
+    }
+
+    private static class Holder {
+        private static final Dstu2TypeRegistry INSTANCE = load();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The differential of a profile as a tree of paths, built in one pass over the elements. Every element is placed
+ * below the closest enclosing element before it, so the elements following a slice belong to that slice, and slices
+ * of elements inside a slice nest below it. Intermediate elements missing from the differential are added without a
+ * definition.
+ */
+final class ElementTree {
+    private final Node root;
+    private final Map<ElementDefinitionDt, Node> nodes = new IdentityHashMap<>();
+
+    ElementTree(StructureDefinition definition) {
+        root = new Node(null, definition.getConstrainedType(), definition.getConstrainedType(), null, null);
+        // The nodes enclosing the current element, innermost first
+        Deque<Node> open = new ArrayDeque<>();
+        open.push(root);
+        for (ElementDefinitionDt element : definition.getDifferential().getElement()) {
+            String path = element.getPath();
+            if (path == null) {
+                continue;
+            }
+            if (path.equals(root.path)) {
+                if (root.element == null) {
+                    root.element = element;
+                    nodes.put(element, root);
+                }
+                continue;
+            }
+            if (!isBelow(path, root.path)) {
+                continue;
+            }
+            while (open.size() > 1 && !isBelow(path, open.peek().path)) {
+                open.pop();
+            }
+            Node node = open.peek();
+            int start = node.path.length() + 1;
+            while (start > 0) {
+                int dot = path.indexOf('.', start);
+                node = node.getOrAddChild(dot < 0 ? path.substring(start) : path.substring(start, dot));
+                start = dot + 1;
+            }
+            if (node.element == null) {
+                node.element = element;
+            } else {
+                node = node.addSlice(element);
+            }
+            nodes.put(element, node);
+            open.push(node);
+        }
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the node or slice the element defines, null if the element is not below the constrained type.
+     */
+    Node getNode(ElementDefinitionDt element) {
+        return nodes.get(element);
+    }
+
+    private static boolean isBelow(String path, String ancestor) {
+        return path.length() > ancestor.length() && path.charAt(ancestor.length()) == '.' && path.startsWith(ancestor);
+    }
+
+    /**
+     * An element of the differential. A slice is a node of its own, with the same path and parent as the sliced
+     * node and the elements constraining the slice as children.
+     */
+    static final class Node {
+        private final Node parent;
+        private final String name;
+        private final String path;
+        private final Node slicedNode;
+        private final String sliceName;
+        private ElementDefinitionDt element;
+        private Map<String, Node> children = Collections.emptyMap();
+        private List<Node> slices = Collections.emptyList();
+
+        private Node(Node parent, String name, String path, Node slicedNode, String sliceName) {
+            this.parent = parent;
+            this.name = name;
+            this.path = path;
+            this.slicedNode = slicedNode;
+            this.sliceName = sliceName;
+        }
+
+        /**
+         * @return the enclosing node, the sliced node's parent for slices, null for the root.
+         */
+        Node getParent() {
+            return parent;
+        }
+
+        /**
+         * @return the last part of the path, e.g. {@code value[x]} for {@code Observation.value[x]}.
+         */
+        String getName() {
+            return name;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the element, null for intermediate elements missing from the differential.
+         */
+        ElementDefinitionDt getElement() {
+            return element;
+        }
+
+        Node getChild(String name) {
+            return children.get(name);
+        }
+
+        Collection<Node> getChildren() {
+            return children.values();
+        }
+
+        /**
+         * @return the slices in the order of the differential. Named elements repeating a path without slicing,
+         * such as extensions, are slices too.
+         */
+        List<Node> getSlices() {
+            return slices;
+        }
+
+        /**
+         * @return true if the element defines slicing with a discriminator.
+         */
+        boolean isSliced() {
+            return element != null && !element.getSlicing().getDiscriminator().isEmpty();
+        }
+
+        boolean isSlice() {
+            return slicedNode != null;
+        }
+
+        /**
+         * @return the node this is a slice of, null if it is not a slice.
+         */
+        Node getSlicedNode() {
+            return slicedNode;
+        }
+
+        String getSliceName() {
+            return sliceName;
+        }
+
+        private Node getOrAddChild(String childName) {
+            Node child = children.get(childName);
+            if (child == null) {
+                if (children.isEmpty()) {
+                    children = new LinkedHashMap<>();
+                }
+                child = new Node(this, childName, path + '.' + childName, null, null);
+                children.put(childName, child);
+            }
+            return child;
+        }
+
+        private Node addSlice(ElementDefinitionDt sliceElement) {
+            if (slices.isEmpty()) {
+                slices = new ArrayList<>();
+            }
+            Node slice = new Node(parent, name, path, this, sliceElement.getName());
+            slice.element = sliceElement;
+            slices.add(slice);
+            return slice;
+        }
+    }
+}
@@ -18,21 +18,39 @@ package com.systematic.healthcare.fhir.generator;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
 import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
-import ca.uhn.fhir.parser.IParser;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 
 public class FileStructureDefinitionProvider implements StructureDefinitionProvider {
-    private final FhirContext context;
+    private final StructureDefinitionParser parser;
     private final String outPackage;
     private final File structureFile;
+    private final StructureDefinitionIndex index;
 
     public FileStructureDefinitionProvider(String outPackage, File structureFile) {
+        this(outPackage, structureFile, StructureDefinitionParser.getDefault());
+    }
+
+    public FileStructureDefinitionProvider(String outPackage, File structureFile, FhirContext context) {
+        this(outPackage, structureFile, new StructureDefinitionParser(context));
+    }
+
+    public FileStructureDefinitionProvider(String outPackage, File structureFile, StructureDefinitionParser parser) {
+        this(outPackage, structureFile, parser, StructureDefinitionIndex.forDirectory(structureFile.getAbsoluteFile().getParentFile()));
+    }
+
+    /**
+     * @param index the index referenced profiles are looked up in, e.g. a recursive index of an implementation guide.
+     */
+    public FileStructureDefinitionProvider(String outPackage, File structureFile, StructureDefinitionParser parser, StructureDefinitionIndex index) {
         this.outPackage = outPackage;
         this.structureFile = structureFile;
-        context = FhirContext.forDstu2();
+        this.parser = parser;
+        this.index = index;
     }
 
     public String getOutPackage() {
@@ -41,22 +59,50 @@ public class FileStructureDefinitionProvider implements StructureDefinitionProvi
 
     @Override
     public StructureDefinition getDefinition() throws IOException {
-        IParser parser = context.newXmlParser();
-        return parser.parseResource(StructureDefinition.class, fileToContentString(structureFile));
+        return parse(structureFile);
     }
 
     @Override
     public StructureDefinition provideReferenceDefinition(ElementDefinitionDt element) throws IOException {
-        String fileStr = element.getTypeFirstRep().getProfileFirstRep().getValue().substring(element.getTypeFirstRep().getProfileFirstRep().getValue().lastIndexOf('/') + 1) + ".xml";
-        File file = new File(structureFile.getParent(), fileStr);
+        File file = getReferenceFile(element.getTypeFirstRep().getProfileFirstRep().getValue());
         if (!file.isFile()) {
             return null;
         }
-        IParser parser = context.newXmlParser();
-        return parser.parseResource(StructureDefinition.class, fileToContentString(file));
+        return parse(file);
     }
 
-    private String fileToContentString(File file) throws IOException {
-        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    /**
+     * @return the file a referenced profile url is resolved from. Files are looked up by their canonical url in the
+     * index first, then by the last part of the url with an XML or JSON extension. The file may not exist.
+     */
+    public File getReferenceFile(String profileUrl) throws IOException {
+        File indexed = index.find(profileUrl);
+        if (indexed != null) {
+            return indexed;
+        }
+        String name = profileUrl.substring(profileUrl.lastIndexOf('/') + 1);
+        File file = new File(structureFile.getParent(), name + ".xml");
+        if (!file.isFile()) {
+            File json = new File(structureFile.getParent(), name + ".json");
+            if (json.isFile()) {
+                return json;
+            }
+        }
+        return file;
+    }
+
+    public File getStructureFile() {
+        return structureFile;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(structureFile);
+    }
+
+    private StructureDefinition parse(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            return parser.parse(in);
+        }
     }
 }
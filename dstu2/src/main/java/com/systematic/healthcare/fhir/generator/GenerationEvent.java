@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.io.Serializable;
+
+/**
+ * One completed {@link GenerationPhase} of the conversion of a profile.
+ */
+public final class GenerationEvent implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String profile;
+    private final GenerationPhase phase;
+    private final int elementCount;
+    private final long durationNanos;
+    private final long allocatedBytes;
+
+    /**
+     * @param allocatedBytes the bytes allocated by the converting thread during the phase, -1 if the JVM does not
+     *                       measure allocation.
+     */
+    public GenerationEvent(String profile, GenerationPhase phase, int elementCount, long durationNanos, long allocatedBytes) {
+        this.profile = profile;
+        this.phase = phase;
+        this.elementCount = elementCount;
+        this.durationNanos = durationNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    public GenerationPhase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the number of differential elements of the profile.
+     */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return profile + " " + phase + ": " + elementCount + " elements, " + durationNanos + " ns, " + allocatedBytes + " bytes";
+    }
+}
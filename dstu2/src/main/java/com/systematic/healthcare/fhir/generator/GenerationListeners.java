@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class GenerationListeners {
+    private static final String JFR_LISTENER = "com.systematic.healthcare.fhir.generator.JfrGenerationListener";
+
+    public static final GenerationListener NONE = new GenerationListener() {
+        @Override
+        public void phaseCompleted(GenerationEvent event) {
+        }
+    };
+
+    private GenerationListeners() {
+    }
+
+    public static GenerationListener compose(GenerationListener... listeners) {
+        final List<GenerationListener> all = new ArrayList<>(Arrays.asList(listeners));
+        all.remove(NONE);
+        if (all.isEmpty()) {
+            return NONE;
+        } else if (all.size() == 1) {
+            return all.get(0);
+        }
+        return new GenerationListener() {
+            @Override
+            public void phaseCompleted(GenerationEvent event) {
+                for (GenerationListener listener : all) {
+                    listener.phaseCompleted(event);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a listener committing every phase as a JDK Flight Recorder event, or {@link #NONE} on JVMs without the
+     * {@code jdk.jfr} API.
+     */
+    public static GenerationListener flightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (GenerationListener) Class.forName(JFR_LISTENER).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return NONE;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Remembers, per converted profile file, the hash of its content, the files generated from it and the files of
+ * the definitions it referenced. Used to regenerate only profiles that changed, or whose referenced
+ * definitions changed, since the last run.
+ */
+public class GenerationManifest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * @return the manifest stored in the file, or an empty manifest if the file is missing or unreadable.
+     */
+    public static GenerationManifest load(File file) {
+        if (!file.isFile()) {
+            return new GenerationManifest();
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (GenerationManifest) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            return new GenerationManifest();
+        }
+    }
+
+    public void store(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeObject(this);
+        }
+    }
+
+    public static String hash(File file) throws IOException {
+        return Files.hash(file, Hashing.sha256()).toString();
+    }
+
+    public Entry get(File profile) {
+        return entries.get(key(profile));
+    }
+
+    public void put(File profile, Entry entry) {
+        entries.put(key(profile), entry);
+    }
+
+    public Entry remove(File profile) {
+        return entries.remove(key(profile));
+    }
+
+    public Set<File> getProfiles() {
+        Set<File> profiles = new HashSet<>();
+        for (String path : entries.keySet()) {
+            profiles.add(new File(path));
+        }
+        return profiles;
+    }
+
+    /**
+     * @return all files referenced by any profile in the manifest.
+     */
+    public Set<File> getDependencyFiles() {
+        Set<File> files = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            for (String path : entry.dependencies.keySet()) {
+                files.add(new File(path));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return the profiles that are new, whose content changed or whose referenced files changed or disappeared.
+     */
+    public Set<File> getOutOfDate(Collection<File> profiles) throws IOException {
+        Map<String, String> dependencyHashes = new HashMap<>();
+        Set<File> outOfDate = new LinkedHashSet<>();
+        for (File profile : profiles) {
+            Entry entry = get(profile);
+            if (entry == null || !entry.contentHash.equals(hash(profile))) {
+                outOfDate.add(profile);
+                continue;
+            }
+            for (Map.Entry<String, String> dependency : entry.dependencies.entrySet()) {
+                if (!dependencyHashes.containsKey(dependency.getKey())) {
+                    File file = new File(dependency.getKey());
+                    dependencyHashes.put(dependency.getKey(), file.isFile() ? hash(file) : "");
+                }
+                if (!dependency.getValue().equals(dependencyHashes.get(dependency.getKey()))) {
+                    outOfDate.add(profile);
+                    break;
+                }
+            }
+        }
+        return outOfDate;
+    }
+
+    private static String key(File file) {
+        return file.getAbsolutePath();
+    }
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String contentHash;
+        private final Set<String> outputs = new TreeSet<>();
+        private final Map<String, String> dependencies = new TreeMap<>();
+
+        public Entry(String contentHash) {
+            this.contentHash = contentHash;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public void addOutput(File output) {
+            outputs.add(output.getAbsolutePath());
+        }
+
+        public Set<File> getOutputs() {
+            Set<File> files = new LinkedHashSet<>();
+            for (String path : outputs) {
+                files.add(new File(path));
+            }
+            return files;
+        }
+
+        /**
+         * Records a file the profile referenced. Files that do not exist are recorded so that adding them later
+         * triggers a regeneration.
+         */
+        public void addDependency(File dependency) throws IOException {
+            dependencies.put(dependency.getAbsolutePath(), dependency.isFile() ? hash(dependency) : "");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+/**
+ * The phases a conversion is measured in, see {@link GenerationListener}.
+ */
+public enum GenerationPhase {
+    /** Reading and parsing the structure definition in the provider. */
+    PARSE,
+    /** Loading the HAPI resource class and reflecting over its fields in {@link ResourceParser}. */
+    REFLECTION,
+    /** Resolving referenced extension definitions through the provider. */
+    EXTENSION_RESOLUTION,
+    /** Building fields and their annotations, not including {@link #EXTENSION_RESOLUTION}. */
+    FIELDS,
+    /** Building slice enums, isEmpty, getters and setters. */
+    METHODS,
+    /** Rendering the Java source, not including {@link #WRITE}. */
+    RENDER,
+    /** Writing the rendered source to its destination. */
+    WRITE
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts profiles in three stages, each with its own threads: parsing the definitions, generating the classes, and
+ * rendering and writing them to files. The write stage renders one class at a time into memory per thread, see
+ * {@link SourceFileWriter}. The stages are connected by bounded queues, so a fast stage waits for a slow
+ * one instead of piling up models, and a profile is dropped as soon as its file is written. At most
+ * {@code parseThreads + generateThreads + writeThreads + 2 * queueCapacity} profiles are in memory at a time,
+ * however many profiles are converted.
+ * <p>
+ * Providers are taken from the iterator only when a parse thread is free, so callers converting a large
+ * implementation guide can create them lazily. Failing profiles are recorded in the {@link PipelineResult} and do
+ * not stop the pipeline.
+ */
+public class GenerationPipeline {
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private final JavaSourceEmitter emitter;
+    private final File outDirectory;
+    private int parseThreads = 1;
+    private int generateThreads = Runtime.getRuntime().availableProcessors();
+    private int writeThreads = 1;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private GenerationListener listener = GenerationListeners.NONE;
+    private GeneratorOptions options = new GeneratorOptions();
+
+    /**
+     * @param outDirectory the source root, classes are written to the directories of their packages below it.
+     */
+    public GenerationPipeline(JavaSourceEmitter emitter, File outDirectory) {
+        this.emitter = emitter;
+        this.outDirectory = outDirectory;
+    }
+
+    public GenerationPipeline setParseThreads(int parseThreads) {
+        this.parseThreads = positive("parseThreads", parseThreads);
+        return this;
+    }
+
+    public GenerationPipeline setGenerateThreads(int generateThreads) {
+        this.generateThreads = positive("generateThreads", generateThreads);
+        return this;
+    }
+
+    /**
+     * Profiles with the same class name overwrite each other's file, use one write thread if the batch can contain
+     * such duplicates.
+     */
+    public GenerationPipeline setWriteThreads(int writeThreads) {
+        this.writeThreads = positive("writeThreads", writeThreads);
+        return this;
+    }
+
+    /**
+     * @param queueCapacity the number of profiles waiting between two stages.
+     */
+    public GenerationPipeline setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = positive("queueCapacity", queueCapacity);
+        return this;
+    }
+
+    /**
+     * @param listener receives the phases of all conversions, from the threads of the stages.
+     */
+    public GenerationPipeline setListener(GenerationListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public GenerationPipeline setOptions(GeneratorOptions options) {
+        this.options = options;
+        return this;
+    }
+
+    /**
+     * Converts the profiles and returns when all files are written.
+     *
+     * @throws IllegalStateException if a stage stops unexpectedly, e.g. because the iterator of the providers throws.
+     */
+    public PipelineResult run(Iterable<? extends StructureDefinitionProvider> providers) throws InterruptedException {
+        PipelineResult result = new PipelineResult();
+        BlockingQueue<Item> parsed = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> generated = new ArrayBlockingQueue<>(queueCapacity);
+        Stage parse = new ParseStage(providers.iterator(), parseThreads, parsed, generateThreads, result);
+        Stage generate = new GenerateStage(parsed, generateThreads, generated, writeThreads, result);
+        Stage write = new WriteStage(generated, writeThreads, result);
+
+        ExecutorService threads = Executors.newFixedThreadPool(parseThreads + generateThreads + writeThreads);
+        try {
+            CompletionService<Void> workers = new ExecutorCompletionService<>(threads);
+            for (Stage stage : new Stage[]{parse, generate, write}) {
+                for (int i = 0; i < stage.threads; i++) {
+                    workers.submit(stage);
+                }
+            }
+            for (int i = 0; i < parseThreads + generateThreads + writeThreads; i++) {
+                try {
+                    workers.take().get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Generation pipeline stopped", e.getCause());
+                }
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        return result;
+    }
+
+    private static int positive(String name, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be positive, was " + value);
+        }
+        return value;
+    }
+
+    /**
+     * A profile on its way through the stages.
+     */
+    private static class Item {
+        private static final Item END = new Item(null);
+
+        private final StructureDefinitionProvider provider;
+        private StructureDefinition definition;
+        private GenerationEvent parseTiming;
+        private JavaClassSource javaClass;
+        private GenerationEvent parseEvent;
+
+        Item(StructureDefinitionProvider provider) {
+            this.provider = provider;
+        }
+    }
+
+    /**
+     * The workers of one stage. The last worker to finish tells every worker of the next stage to stop, also when it
+     * stops because of an error, so the next stage never waits for input that will not come.
+     */
+    private abstract static class Stage implements Callable<Void> {
+        private final int threads;
+        private final AtomicInteger running;
+        private final BlockingQueue<Item> output;
+        private final int consumers;
+        final PipelineResult result;
+
+        Stage(int threads, BlockingQueue<Item> output, int consumers, PipelineResult result) {
+            this.threads = threads;
+            this.running = new AtomicInteger(threads);
+            this.output = output;
+            this.consumers = consumers;
+            this.result = result;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                Item item;
+                while ((item = next()) != null) {
+                    try {
+                        process(item);
+                    } catch (Exception e) {
+                        result.addFailure(item.provider, e);
+                        continue;
+                    }
+                    if (output != null) {
+                        output.put(item);
+                    }
+                }
+            } finally {
+                if (running.decrementAndGet() == 0 && output != null) {
+                    for (int i = 0; i < consumers; i++) {
+                        output.put(Item.END);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the next item, null when there are no more.
+         */
+        abstract Item next() throws InterruptedException;
+
+        abstract void process(Item item) throws Exception;
+    }
+
+    private abstract static class QueueStage extends Stage {
+        private final BlockingQueue<Item> input;
+
+        QueueStage(BlockingQueue<Item> input, int threads, BlockingQueue<Item> output, int consumers, PipelineResult result) {
+            super(threads, output, consumers, result);
+            this.input = input;
+        }
+
+        @Override
+        Item next() throws InterruptedException {
+            Item item = input.take();
+            return item != Item.END ? item : null;
+        }
+    }
+
+    private static class ParseStage extends Stage {
+        private final Iterator<? extends StructureDefinitionProvider> providers;
+
+        ParseStage(Iterator<? extends StructureDefinitionProvider> providers, int threads, BlockingQueue<Item> output,
+                   int consumers, PipelineResult result) {
+            super(threads, output, consumers, result);
+            this.providers = providers;
+        }
+
+        @Override
+        Item next() {
+            synchronized (providers) {
+                return providers.hasNext() ? new Item(providers.next()) : null;
+            }
+        }
+
+        @Override
+        void process(Item item) throws Exception {
+            PhaseTimer timer = PhaseTimer.start();
+            item.definition = item.provider.getDefinition();
+            item.parseTiming = timer.stop(String.valueOf(item.provider), GenerationPhase.PARSE, 0);
+        }
+    }
+
+    private class GenerateStage extends QueueStage {
+        GenerateStage(BlockingQueue<Item> input, int threads, BlockingQueue<Item> output, int consumers, PipelineResult result) {
+            super(input, threads, output, consumers, result);
+        }
+
+        @Override
+        void process(final Item item) throws Exception {
+            GenerationListener conversion = new GenerationListener() {
+                @Override
+                public void phaseCompleted(GenerationEvent event) {
+                    if (event.getPhase() == GenerationPhase.PARSE) {
+                        // The definition was parsed by the parse stage, report that instead of the hand over
+                        event = new GenerationEvent(event.getProfile(), GenerationPhase.PARSE, event.getElementCount(),
+                                item.parseTiming.getDurationNanos(), item.parseTiming.getAllocatedBytes());
+                        item.parseEvent = event;
+                    }
+                    listener.phaseCompleted(event);
+                }
+            };
+            StructureDefinition definition = item.definition;
+            item.definition = null;
+            item.javaClass = Generator.generate(new ParsedProvider(item.provider, definition), conversion, options);
+        }
+    }
+
+    private class WriteStage extends QueueStage {
+        private final DirectoryOutputSink sink = new DirectoryOutputSink(outDirectory);
+        private final SourceFileWriter writer = new SourceFileWriter(emitter, listener, sink);
+
+        WriteStage(BlockingQueue<Item> input, int threads, PipelineResult result) {
+            super(input, threads, null, 0, result);
+        }
+
+        @Override
+        void process(Item item) throws IOException {
+            JavaClassSource javaClass = item.javaClass;
+            item.javaClass = null;
+            writer.write(javaClass, item.parseEvent);
+            result.addWritten(item.provider, sink.getFile(SourceFileWriter.getPath(javaClass)));
+        }
+    }
+
+    /**
+     * Serves the definition read by the parse stage and leaves the references to the original provider.
+     */
+    private static class ParsedProvider implements StructureDefinitionProvider {
+        private final StructureDefinitionProvider delegate;
+        private final StructureDefinition definition;
+
+        ParsedProvider(StructureDefinitionProvider delegate, StructureDefinition definition) {
+            this.delegate = delegate;
+            this.definition = definition;
+        }
+
+        @Override
+        public String getOutPackage() {
+            return delegate.getOutPackage();
+        }
+
+        @Override
+        public StructureDefinition getDefinition() {
+            return definition;
+        }
+
+        @Override
+        public StructureDefinition provideReferenceDefinition(ElementDefinitionDt element) throws IOException {
+            return delegate.provideReferenceDefinition(element);
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
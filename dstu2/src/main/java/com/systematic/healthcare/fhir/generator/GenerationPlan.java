@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of {@link GenerationPlanner#plan}: the profiles in the order they can be generated, the referenced
+ * definitions resolved up front, and the profiles that cannot be generated because of missing extension definitions,
+ * extension definition cycles or unreadable definitions.
+ */
+public class GenerationPlan {
+    private final List<List<StructureDefinitionProvider>> waves;
+    private final Map<StructureDefinitionProvider, Exception> problems;
+    private final Map<StructureDefinitionProvider, String> warnings;
+    private final Map<StructureDefinitionProvider, StructureDefinition> definitions;
+    private final Map<String, StructureDefinition> references;
+
+    GenerationPlan(List<List<StructureDefinitionProvider>> waves, Map<StructureDefinitionProvider, Exception> problems,
+                   Map<StructureDefinitionProvider, String> warnings, Map<StructureDefinitionProvider, StructureDefinition> definitions,
+                   Map<String, StructureDefinition> references) {
+        this.waves = waves;
+        this.problems = problems;
+        this.warnings = warnings;
+        this.definitions = definitions;
+        this.references = references;
+    }
+
+    /**
+     * @return the profiles grouped in waves. A profile only references profiles of earlier waves, so the profiles of
+     * a wave can be generated in parallel once the earlier waves are done.
+     */
+    public List<List<StructureDefinitionProvider>> getWaves() {
+        return Collections.unmodifiableList(waves);
+    }
+
+    /**
+     * @return the profiles left out of the waves, with the reason.
+     */
+    public Map<StructureDefinitionProvider, Exception> getProblems() {
+        return Collections.unmodifiableMap(problems);
+    }
+
+    public boolean hasProblems() {
+        return !problems.isEmpty();
+    }
+
+    /**
+     * @return profiles that are generated, but are part of a cycle of profile references.
+     */
+    public Map<StructureDefinitionProvider, String> getWarnings() {
+        return Collections.unmodifiableMap(warnings);
+    }
+
+    /**
+     * @return the number of distinct referenced definitions, each of them was read once.
+     */
+    public int getReferenceCount() {
+        return references.size();
+    }
+
+    /**
+     * @return a provider serving the definition and references parsed while planning, so the conversion does no I/O.
+     */
+    StructureDefinitionProvider getPlannedProvider(StructureDefinitionProvider provider) {
+        return new PlannedProvider(provider, definitions.get(provider), references);
+    }
+
+    private static class PlannedProvider implements StructureDefinitionProvider {
+        private final StructureDefinitionProvider delegate;
+        private final StructureDefinition definition;
+        private final Map<String, StructureDefinition> references;
+
+        PlannedProvider(StructureDefinitionProvider delegate, StructureDefinition definition, Map<String, StructureDefinition> references) {
+            this.delegate = delegate;
+            this.definition = definition;
+            this.references = references;
+        }
+
+        @Override
+        public String getOutPackage() {
+            return delegate.getOutPackage();
+        }
+
+        @Override
+        public StructureDefinition getDefinition() {
+            return definition;
+        }
+
+        @Override
+        public StructureDefinition provideReferenceDefinition(ElementDefinitionDt element) throws IOException {
+            StructureDefinition reference = references.get(element.getTypeFirstRep().getProfileFirstRep().getValue());
+            return reference != null ? reference : delegate.provideReferenceDefinition(element);
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import ca.uhn.fhir.model.primitive.UriDt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Plans the generation of a batch of profiles before any class is generated. All definitions are parsed, the
+ * canonical urls their differentials reference are collected into a dependency graph, and every referenced
+ * definition is read exactly once, from the batch itself when it is part of it. A profile is generated after the batch
+ * profiles it uses as extension definitions. Profiles referencing an extension definition that cannot be found, and
+ * profiles in a cycle of extension definitions, are reported as problems of the plan. Cycles of other profile
+ * references, e.g. two profiles referencing each other as {@code Reference} targets, are fine to generate and are
+ * only reported as warnings.
+ */
+public class GenerationPlanner {
+    private final ExecutorService executor;
+
+    /**
+     * @param executor reads the definitions in parallel.
+     */
+    public GenerationPlanner(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public GenerationPlan plan(Collection<? extends StructureDefinitionProvider> providers) throws InterruptedException {
+        Map<StructureDefinitionProvider, Exception> problems = new LinkedHashMap<>();
+        Map<StructureDefinitionProvider, StructureDefinition> definitions = parseDefinitions(providers, problems);
+
+        Map<String, StructureDefinitionProvider> profilesByUrl = new HashMap<>();
+        for (Map.Entry<StructureDefinitionProvider, StructureDefinition> definition : definitions.entrySet()) {
+            if (definition.getValue().getUrl() != null) {
+                profilesByUrl.put(definition.getValue().getUrl(), definition.getKey());
+            }
+        }
+
+        // The extension definitions the generator resolves, with the first element referencing each of them
+        Map<String, Reference> extensionReferences = new LinkedHashMap<>();
+        // Only resolved extension definitions order the generation, other profile references are just names to it
+        Map<StructureDefinitionProvider, Set<StructureDefinitionProvider>> dependencies = new LinkedHashMap<>();
+        Map<StructureDefinitionProvider, Set<StructureDefinitionProvider>> profileReferences = new LinkedHashMap<>();
+        Map<StructureDefinitionProvider, Set<String>> referencedExtensions = new HashMap<>();
+        for (Map.Entry<StructureDefinitionProvider, StructureDefinition> definition : definitions.entrySet()) {
+            Set<StructureDefinitionProvider> profileDependencies = new LinkedHashSet<>();
+            Set<StructureDefinitionProvider> referencedProfiles = new LinkedHashSet<>();
+            Set<String> extensions = new LinkedHashSet<>();
+            for (ElementDefinitionDt element : definition.getValue().getDifferential().getElement()) {
+                for (ElementDefinitionDt.Type type : element.getType()) {
+                    for (UriDt profile : type.getProfile()) {
+                        StructureDefinitionProvider referenced = profilesByUrl.get(profile.getValue());
+                        if (referenced != null && referenced != definition.getKey()) {
+                            referencedProfiles.add(referenced);
+                        }
+                    }
+                }
+                if (isResolvedExtension(definition.getValue(), element)) {
+                    String url = element.getTypeFirstRep().getProfileFirstRep().getValue();
+                    extensions.add(url);
+                    if (!extensionReferences.containsKey(url)) {
+                        extensionReferences.put(url, new Reference(definition.getKey(), element));
+                    }
+                    StructureDefinitionProvider inBatch = profilesByUrl.get(url);
+                    if (inBatch != null && inBatch != definition.getKey()) {
+                        profileDependencies.add(inBatch);
+                    }
+                }
+            }
+            dependencies.put(definition.getKey(), profileDependencies);
+            profileReferences.put(definition.getKey(), referencedProfiles);
+            referencedExtensions.put(definition.getKey(), extensions);
+        }
+
+        Map<String, StructureDefinition> references = new HashMap<>();
+        Map<String, Exception> missing = new HashMap<>();
+        resolveReferences(extensionReferences, profilesByUrl, definitions, references, missing);
+        for (Map.Entry<StructureDefinitionProvider, Set<String>> profile : referencedExtensions.entrySet()) {
+            for (String url : profile.getValue()) {
+                if (missing.containsKey(url)) {
+                    problems.put(profile.getKey(), missing.get(url));
+                    dependencies.remove(profile.getKey());
+                    break;
+                }
+            }
+        }
+
+        Map<StructureDefinitionProvider, String> cycles = new LinkedHashMap<>();
+        List<List<StructureDefinitionProvider>> waves = topologicalWaves(dependencies, cycles);
+        for (Map.Entry<StructureDefinitionProvider, String> cycle : cycles.entrySet()) {
+            problems.put(cycle.getKey(), new IllegalStateException("Extension definition cycle: " + cycle.getValue()));
+        }
+        Map<StructureDefinitionProvider, String> warnings = new LinkedHashMap<>();
+        cycles.clear();
+        topologicalWaves(profileReferences, cycles);
+        for (Map.Entry<StructureDefinitionProvider, String> cycle : cycles.entrySet()) {
+            warnings.put(cycle.getKey(), "Reference cycle: " + cycle.getValue());
+        }
+        return new GenerationPlan(waves, problems, warnings, definitions, references);
+    }
+
+    private Map<StructureDefinitionProvider, StructureDefinition> parseDefinitions(Collection<? extends StructureDefinitionProvider> providers,
+                                                                                Map<StructureDefinitionProvider, Exception> problems) throws InterruptedException {
+        Map<StructureDefinitionProvider, Future<StructureDefinition>> futures = new LinkedHashMap<>();
+        for (final StructureDefinitionProvider provider : providers) {
+            futures.put(provider, executor.submit(new Callable<StructureDefinition>() {
+                @Override
+                public StructureDefinition call() throws Exception {
+                    return provider.getDefinition();
+                }
+            }));
+        }
+        Map<StructureDefinitionProvider, StructureDefinition> definitions = new LinkedHashMap<>();
+        for (Map.Entry<StructureDefinitionProvider, Future<StructureDefinition>> future : futures.entrySet()) {
+            try {
+                definitions.put(future.getKey(), future.getValue().get());
+            } catch (ExecutionException e) {
+                problems.put(future.getKey(), asException(e.getCause()));
+            }
+        }
+        return definitions;
+    }
+
+    private void resolveReferences(Map<String, Reference> extensionReferences, Map<String, StructureDefinitionProvider> profilesByUrl,
+                                   Map<StructureDefinitionProvider, StructureDefinition> definitions,
+                                   Map<String, StructureDefinition> references, Map<String, Exception> missing) throws InterruptedException {
+        Map<String, Future<StructureDefinition>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Reference> entry : extensionReferences.entrySet()) {
+            StructureDefinitionProvider inBatch = profilesByUrl.get(entry.getKey());
+            if (inBatch != null) {
+                references.put(entry.getKey(), definitions.get(inBatch));
+                continue;
+            }
+            final Reference reference = entry.getValue();
+            futures.put(entry.getKey(), executor.submit(new Callable<StructureDefinition>() {
+                @Override
+                public StructureDefinition call() throws Exception {
+                    return reference.provider.provideReferenceDefinition(reference.element);
+                }
+            }));
+        }
+        for (Map.Entry<String, Future<StructureDefinition>> future : futures.entrySet()) {
+            try {
+                StructureDefinition definition = future.getValue().get();
+                if (definition != null) {
+                    references.put(future.getKey(), definition);
+                } else {
+                    missing.put(future.getKey(), new IOException("Referenced definition not found: " + future.getKey()));
+                }
+            } catch (ExecutionException e) {
+                missing.put(future.getKey(), new IOException("Could not read referenced definition " + future.getKey(), e.getCause()));
+            }
+        }
+    }
+
+    /**
+     * Kahn's algorithm, one wave per round. Whatever is left once no profile is free of dependencies is part of, or
+     * depends on, a cycle, and is put into {@code cycles} with a description of the cycle.
+     */
+    private static List<List<StructureDefinitionProvider>> topologicalWaves(Map<StructureDefinitionProvider, Set<StructureDefinitionProvider>> dependencies,
+                                                                          Map<StructureDefinitionProvider, String> cycles) {
+        Map<StructureDefinitionProvider, Set<StructureDefinitionProvider>> remaining = new LinkedHashMap<>();
+        for (Map.Entry<StructureDefinitionProvider, Set<StructureDefinitionProvider>> entry : dependencies.entrySet()) {
+            remaining.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+        }
+        List<List<StructureDefinitionProvider>> waves = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            List<StructureDefinitionProvider> wave = new ArrayList<>();
+            for (Map.Entry<StructureDefinitionProvider, Set<StructureDefinitionProvider>> entry : remaining.entrySet()) {
+                entry.getValue().retainAll(remaining.keySet());
+                if (entry.getValue().isEmpty()) {
+                    wave.add(entry.getKey());
+                }
+            }
+            if (wave.isEmpty()) {
+                for (StructureDefinitionProvider provider : remaining.keySet()) {
+                    cycles.put(provider, describeCycle(provider, remaining));
+                }
+                break;
+            }
+            remaining.keySet().removeAll(wave);
+            waves.add(wave);
+        }
+        return waves;
+    }
+
+    private static String describeCycle(StructureDefinitionProvider start, Map<StructureDefinitionProvider, Set<StructureDefinitionProvider>> remaining) {
+        List<StructureDefinitionProvider> path = new ArrayList<>();
+        StructureDefinitionProvider current = start;
+        while (!path.contains(current)) {
+            path.add(current);
+            current = remaining.get(current).iterator().next();
+        }
+        StringBuilder cycle = new StringBuilder();
+        for (StructureDefinitionProvider provider : path.subList(path.indexOf(current), path.size())) {
+            cycle.append(provider).append(" -> ");
+        }
+        return cycle.append(current).toString();
+    }
+
+    /**
+     * Mirrors {@link Generator}, which resolves the definitions of named extension elements of the profile.
+     */
+    static boolean isResolvedExtension(StructureDefinition definition, ElementDefinitionDt element) {
+        String constrainedType = definition.getConstrainedType();
+        return constrainedType != null
+                && element.getPath().equals(constrainedType + ".extension")
+                && element.getName() != null
+                && element.getType().size() == 1
+                && element.getTypeFirstRep().getProfileFirstRep().getValue() != null;
+    }
+
+    private static Exception asException(Throwable throwable) {
+        return throwable instanceof Exception ? (Exception) throwable : new IllegalStateException(throwable);
+    }
+
+    private static class Reference {
+        final StructureDefinitionProvider provider;
+        final ElementDefinitionDt element;
+
+        Reference(StructureDefinitionProvider provider, ElementDefinitionDt element) {
+            this.provider = provider;
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.util.EnumMap;
+import java.util.Formatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adds up the phases of a batch of conversions for a report at the end of the batch.
+ */
+public class GenerationSummary implements GenerationListener {
+    private final Map<GenerationPhase, PhaseTotal> phases = new EnumMap<>(GenerationPhase.class);
+    private final Map<String, Integer> profiles = new LinkedHashMap<>();
+
+    @Override
+    public synchronized void phaseCompleted(GenerationEvent event) {
+        if (event.getPhase() == GenerationPhase.PARSE) {
+            profiles.put(event.getProfile(), event.getElementCount());
+        }
+        PhaseTotal total = phases.get(event.getPhase());
+        if (total == null) {
+            total = new PhaseTotal();
+            phases.put(event.getPhase(), total);
+        }
+        total.add(event);
+    }
+
+    public synchronized int getProfileCount() {
+        return profiles.size();
+    }
+
+    public synchronized long getTotalNanos(GenerationPhase phase) {
+        PhaseTotal total = phases.get(phase);
+        return total != null ? total.nanos : 0;
+    }
+
+    public synchronized long getTotalAllocatedBytes(GenerationPhase phase) {
+        PhaseTotal total = phases.get(phase);
+        return total != null ? total.bytes : 0;
+    }
+
+    /**
+     * @return a table of the count, duration and allocation per phase, and the slowest profile of each phase.
+     */
+    public synchronized String report() {
+        int elements = 0;
+        for (int count : profiles.values()) {
+            elements += count;
+        }
+        Formatter out = new Formatter(new StringBuilder(), java.util.Locale.ROOT);
+        out.format("Converted %d profiles with %d elements%n", profiles.size(), elements);
+        out.format("%-22s %7s %11s %10s %10s %14s  %s%n", "phase", "count", "total ms", "mean ms", "max ms", "allocated MB", "slowest");
+        long nanos = 0;
+        long bytes = 0;
+        for (Map.Entry<GenerationPhase, PhaseTotal> entry : phases.entrySet()) {
+            PhaseTotal total = entry.getValue();
+            out.format("%-22s %7d %11.1f %10.2f %10.1f %14.1f  %s%n", entry.getKey(), total.count, millis(total.nanos),
+                    millis(total.nanos) / total.count, millis(total.maxNanos), megabytes(total.bytes), total.slowest);
+            nanos += total.nanos;
+            bytes += total.bytes;
+        }
+        out.format("%-22s %7s %11.1f %10s %10s %14.1f%n", "total", "", millis(nanos), "", "", megabytes(bytes));
+        return out.toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static double megabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    private static class PhaseTotal {
+        int count;
+        long nanos;
+        long bytes;
+        long maxNanos = -1;
+        String slowest;
+
+        void add(GenerationEvent event) {
+            count++;
+            nanos += event.getDurationNanos();
+            bytes += Math.max(event.getAllocatedBytes(), 0);
+            if (event.getDurationNanos() > maxNanos) {
+                maxNanos = event.getDurationNanos();
+                slowest = event.getProfile();
+            }
+        }
+    }
+}
@@ -26,7 +26,6 @@ import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
 import ca.uhn.fhir.model.dstu2.composite.ResourceReferenceDt;
 import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
 import ca.uhn.fhir.model.primitive.BoundCodeDt;
-import ca.uhn.fhir.model.primitive.UriDt;
 import ca.uhn.fhir.util.ElementUtil;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -37,56 +36,107 @@ import org.jboss.forge.roaster.model.source.*;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
 import java.util.*;
 
 public class Generator {
 
-    private static final String DSTU2_PACKAGE = "ca.uhn.fhir.model.dstu2";
-    private static final String DSTU2_RESOURCE_PACKAGE = DSTU2_PACKAGE + ".resource";
-    private static final String DSTU2_COMPOSITE_PACKAGE = DSTU2_PACKAGE + ".composite";
-    private static final String DSTU2_PRIMITIVE_PACKAGE = "ca.uhn.fhir.model.primitive";
     public static final String HL7_FHIR_REFERENCE_URL_START = "http://hl7.org/fhir";
+    private static final int DEFAULT_LIST_CAPACITY = 10;
+
+    private final List<FieldSource<JavaClassSource>> existingFieldsChanged = new ArrayList<>();
+    private final List<FieldSource<JavaClassSource>> extensionFieldsAdded = new ArrayList<>();
+    private final GenerationListener listener;
+    private final GeneratorOptions options;
+    private final ResourceParser resourceParser;
+    private String profile;
+    private int elementCount;
+    private PhaseTimer fieldsTimer;
+
+    private Generator(GenerationListener listener, GeneratorOptions options, ResourceParser resourceParser) {
+        this.listener = listener;
+        this.options = options;
+        this.resourceParser = resourceParser;
+    }
 
+    /**
+     * Converts a single structure definition. Every invocation runs on its own generation context, so
+     * this method may be called concurrently for different providers, see {@link BatchGenerator}.
+     */
     public static JavaClassSource generate(StructureDefinitionProvider resolver) throws Exception {
-        return new Generator().convertDefinitionToJavaFile(resolver);
+        return generate(resolver, GenerationListeners.NONE);
+    }
+
+    /**
+     * Converts a single structure definition, reporting each {@link GenerationPhase} to the listener.
+     */
+    public static JavaClassSource generate(StructureDefinitionProvider resolver, GenerationListener listener) throws Exception {
+        return generate(resolver, listener, new GeneratorOptions());
+    }
+
+    public static JavaClassSource generate(StructureDefinitionProvider resolver, GenerationListener listener, GeneratorOptions options) throws Exception {
+        return generate(resolver, listener, options, new ResourceParser());
+    }
+
+    static JavaClassSource generate(StructureDefinitionProvider resolver, GenerationListener listener, GeneratorOptions options,
+                                    ResourceParser resourceParser) throws Exception {
+        return new Generator(listener, options, resourceParser).convertDefinitionToJavaFile(resolver);
     }
 
     private JavaClassSource convertDefinitionToJavaFile(StructureDefinitionProvider resolver) throws Exception {
+        PhaseTimer timer = PhaseTimer.start();
         StructureDefinition def = resolver.getDefinition();
+        profile = def.getId().getIdPart() != null ? def.getId().getIdPart() : def.getName();
+        elementCount = def.getDifferential().getElement().size();
+        completed(timer, GenerationPhase.PARSE);
+
+        timer = PhaseTimer.start();
+        Class<? extends IResource> superClass = Dstu2TypeRegistry.getInstance().getResourceType(def.getConstrainedType());
+        Map<String, ResourceParser.FieldInfo> fieldInfo = resourceParser.parseResource(superClass);
+        completed(timer, GenerationPhase.REFLECTION);
+
+        fieldsTimer = PhaseTimer.start();
         final JavaClassSource javaClass = Roaster.create(JavaClassSource.class);
-        Class<? extends IResource> superClass = (Class<? extends IResource>) Class.forName(DSTU2_RESOURCE_PACKAGE + "." + def.getConstrainedType());
         javaClass.setPackage(resolver.getOutPackage()).setName(convertNameToValidJavaIdentifier(def.getName())).extendSuperType(superClass);
         addClassResourceDefAnnotation(def, javaClass);
-        Map<String, ResourceParser.FieldInfo> fieldInfo = new ResourceParser().parseResource(superClass);
-
-        StructureDefinition.Differential dif = def.getDifferential();
-        List<ElementDefinitionDt> elements = dif.getElement();
-        for (ElementDefinitionDt element : elements) {
-            if (element.getPath().indexOf('.') != -1) {
-                //Element name is (path minus the constrained name). E.g. Path for field Subject on Observations is Observation.subject, which we resolve to subject
-                String elementName = element.getPath().substring(def.getConstrainedType().length() + 1);
-                if (elementName.endsWith("[x]")) {
-                    elementName = elementName.substring(0, elementName.indexOf("[x]"));
-                }
-                if (elementName.equals("extension")) {
-                    addExtensionField(javaClass, element, resolver);
-                } else {
-                    addField(javaClass, fieldInfo, element, elementName);
-                }
+
+        ElementTree tree = new ElementTree(def);
+        // In the order of the differential, so the fields are declared in that order
+        for (ElementDefinitionDt element : def.getDifferential().getElement()) {
+            ElementTree.Node node = tree.getNode(element);
+            if (node == null || node.getParent() != tree.getRoot()) {
+                continue;
+            }
+            //Element name is the last part of the path. E.g. Path for field Subject on Observations is Observation.subject, which we resolve to subject
+            String elementName = node.getName();
+            if (elementName.endsWith("[x]")) {
+                elementName = elementName.substring(0, elementName.indexOf("[x]"));
+            }
+            if (elementName.equals("extension")) {
+                addExtensionField(javaClass, element, resolver);
+            } else if (!node.isSlice()) {
+                addField(javaClass, fieldInfo, element, elementName);
             }
         }
-        addSliceFields(resolver, javaClass);
+        completed(fieldsTimer, GenerationPhase.FIELDS);
+
+        timer = PhaseTimer.start();
+        addSliceFields(resolver, javaClass, tree.getRoot(), "");
         List<FieldSource<JavaClassSource>> allFields = new ArrayList<>();
         allFields.addAll(existingFieldsChanged);
         allFields.addAll(extensionFieldsAdded);
         addIsEmptyMethod(javaClass, allFields);
         addSettersAndGettersForFields(javaClass, existingFieldsChanged, false, superClass, fieldInfo);
         addSettersAndGettersForFields(javaClass, extensionFieldsAdded, true, superClass, fieldInfo);
+        completed(timer, GenerationPhase.METHODS);
         return javaClass;
     }
 
+    private GenerationEvent completed(PhaseTimer timer, GenerationPhase phase) {
+        GenerationEvent event = timer.stop(profile, phase, elementCount);
+        listener.phaseCompleted(event);
+        return event;
+    }
+
     private void addSettersAndGettersForFields(JavaClassSource javaClass, List<FieldSource<JavaClassSource>> fieldsAdded, boolean isExtension, Class<?> superClass, Map<String, ResourceParser.FieldInfo> fieldInfo) {
         for (FieldSource<JavaClassSource> field : fieldsAdded) {
             String fieldName = StringUtils.capitalize(field.getName().substring(2)); // Remove my
@@ -98,8 +148,24 @@ public class Generator {
                 genericType = IDatatype.class.getName();
             }
             String type = field.getType().getName();
+            AnnotationSource<JavaClassSource> childAnnotation = field.getAnnotation(Child.class);
+            String min = childAnnotation.getStringValue("min");
+            String max = childAnnotation.getStringValue("max");
+            boolean deprecate = "0".equals(min) && "0".equals(max);
+            boolean allocationFreeList = options.isAllocationFreeAccessors() && field.getType().isType(List.class);
+            String capacity = initialCapacity(max);
+            String createList = "if (" + field.getName() + " == null) {\n" +
+                    "    " + field.getName() + " = new java.util.ArrayList<>(" + capacity + ");\n" +
+                    "}\n";
             String bodyGetSimple = "return " + field.getName() + ";";
-            if (field.getType().isType(List.class)) {
+            if (allocationFreeList) {
+                bodyGetSimple = "if (" + field.getName() + " == null) {\n" +
+                        "   return java.util.Collections.emptyList();\n" +
+                        "}\n" +
+                        bodyGetSimple;
+
+                type = type + "<" + genericType + ">";
+            } else if (field.getType().isType(List.class)) {
                 bodyGetSimple = "if (" + field.getName() + " == null) {\n" +
                         "   " + field.getName() + " = new java.util.ArrayList<>();\n" +
                         "}\n" +
@@ -107,14 +173,18 @@ public class Generator {
 
                 type = type + "<" + genericType + ">";
             }
-            AnnotationSource<JavaClassSource> childAnnotation = field.getAnnotation(Child.class);
-            String min = childAnnotation.getStringValue("min");
-            String max = childAnnotation.getStringValue("max");
-            boolean deprecate = "0".equals(min) && "0".equals(max);
             if (existingField != null) {
-                for (Method method : existingField.getMethods()) {
+                for (ResourceParser.MethodInfo method : existingField.getAccessors()) {
                     String simpleType = genericType != null ? genericType : field.getType().getName();
-                    if (method.getName().startsWith("get") && method.getName().endsWith("FirstRep")) {
+                    if (allocationFreeList && method.getName().startsWith("get") && method.getName().endsWith("FirstRep")) {
+                        String body = "if (" + field.getName() + " == null || " + field.getName() + ".isEmpty()) {\n" +
+                                "    return add"+existingField.getOrigFieldName()+"();\n" +
+                                "}\n" +
+                                "return " + field.getName() + ".get(0);";
+                        addGetMethod(javaClass, method.getName(), simpleType, body, deprecate).getJavaDoc()
+                                .setText("Adds an element through {@link #add" + existingField.getOrigFieldName()
+                                        + "()} when there is none, like the accessors of the base class.");
+                    } else if (method.getName().startsWith("get") && method.getName().endsWith("FirstRep")) {
                         String body = "if (get"+existingField.getOrigFieldName()+"().isEmpty()) {\n" +
                                 "    return add"+existingField.getOrigFieldName()+"();\n" +
                                 "}\n" +
@@ -126,6 +196,11 @@ public class Generator {
                                 "    \n" +
                                 "return "+field.getName()+";";
                         addGetMethod(javaClass, method.getName(), type, body, deprecate);
+                    } else if (allocationFreeList && method.getName().startsWith("get")) {
+                        addGetMethod(javaClass, method.getName(), type, bodyGetSimple, deprecate).getJavaDoc()
+                                .setText("Returns an immutable empty list until an element is added, so add elements through the {@code add"
+                                        + existingField.getOrigFieldName() + "} methods or {@link #set" + fieldName
+                                        + "(java.util.List)} rather than through the returned list.");
                     } else if (method.getName().startsWith("get")) {
                         addGetMethod(javaClass, method.getName(), type, bodyGetSimple, deprecate);
                     } else if (method.getName().startsWith("set")) {
@@ -137,7 +212,27 @@ public class Generator {
                         if (deprecate) {
                             methodSet.addAnnotation(Deprecated.class);
                         }
-                    } else if (method.getName().startsWith("add") && method.getParameterTypes().length == 0) {
+                    } else if (allocationFreeList && method.getName().startsWith("add") && method.getParameterCount() == 0) {
+                        String body = createList +
+                                simpleType + " newType = new " + simpleType + "();\n" +
+                                field.getName() + ".add(newType);\n" +
+                                "return newType;";
+                        addGetMethod(javaClass, method.getName(), simpleType, body, deprecate).getJavaDoc()
+                                .setText("Creates the list on the first call" + (capacity.isEmpty() ? "." :
+                                        ", presized to the " + capacity + " elements the profile allows at most."));
+                    } else if (allocationFreeList && method.getName().startsWith("add") && method.getParameterCount() == 1) {
+                        // The inherited adder adds to getX(), which is immutable while the list is not created
+                        String parameterType = method.getParameterTypeNames()[0].replace('$', '.');
+                        String body = "if (theValue == null) {\n" +
+                                "    throw new NullPointerException(\"theValue must not be null\");\n" +
+                                "}\n" +
+                                createList +
+                                field.getName() + ".add(" + (parameterType.equals(simpleType) ? "" : "(" + simpleType + ") ") + "theValue);\n" +
+                                "return this;";
+                        MethodSource<JavaClassSource> methodAdd = addGetMethod(javaClass, method.getName(), javaClass.getName(), body, deprecate);
+                        methodAdd.addParameter(parameterType, "theValue");
+                        methodAdd.addAnnotation(Override.class);
+                    } else if (method.getName().startsWith("add") && method.getParameterCount() == 0) {
                         String body = simpleType + " newType = new "+simpleType+"();\n" +
                                 "    get"+existingField.getOrigFieldName()+"().add(newType);\n" +
                                 "return newType;";
@@ -150,33 +245,76 @@ public class Generator {
         }
     }
 
-    private void addGetMethod(JavaClassSource javaClass, String methodName, String type, String body, boolean deprecate) {
+    /**
+     * @return the capacity for a list holding at most max elements, empty to keep the {@link ArrayList} default.
+     */
+    private static String initialCapacity(String max) {
+        if (max != null && max.matches("\\d+") && Integer.parseInt(max) > 0 && Integer.parseInt(max) < DEFAULT_LIST_CAPACITY) {
+            return max;
+        }
+        return "";
+    }
+
+    private MethodSource<JavaClassSource> addGetMethod(JavaClassSource javaClass, String methodName, String type, String body, boolean deprecate) {
         MethodSource<JavaClassSource> method = javaClass.addMethod().setName(methodName).setPublic().setReturnType(type).setBody(body);
         if (deprecate) {
             method.addAnnotation(Deprecated.class);
         }
+        return method;
     }
 
     private void addIsEmptyMethod(JavaClassSource javaClass, List<FieldSource<JavaClassSource>> fieldsAdded) {
-        String types = Joiner.on(',').join(FluentIterable.from(fieldsAdded).transform(new FieldSourceGetNameFunction()));
-        String body = "return super.isEmpty() && ElementUtil.isEmpty(" + types + ");";
+        String body;
+        if (options.isAllocationFreeAccessors()) {
+            // ElementUtil.isEmpty(List) walks the list by index, the varargs variants allocate an array per call
+            StringBuilder checks = new StringBuilder("return super.isEmpty()");
+            for (FieldSource<JavaClassSource> field : fieldsAdded) {
+                if (field.getType().isType(List.class)) {
+                    checks.append("\n&& ElementUtil.isEmpty(").append(field.getName()).append(")");
+                } else {
+                    checks.append("\n&& (").append(field.getName()).append(" == null || ").append(field.getName()).append(".isEmpty())");
+                }
+            }
+            body = checks.append(";").toString();
+        } else {
+            String types = Joiner.on(',').join(FluentIterable.from(fieldsAdded).transform(new FieldSourceGetNameFunction()));
+            body = "return super.isEmpty() && ElementUtil.isEmpty(" + types + ");";
+        }
         MethodSource<JavaClassSource> method = javaClass.addMethod().setName("isEmpty").setPublic().setReturnType("boolean").setBody(body);
         method.addAnnotation(Override.class);
         javaClass.addImport(ElementUtil.class);
     }
 
-    private void addSliceFields(StructureDefinitionProvider resolver, JavaClassSource javaClass) {
-        for (Map.Entry<String, CompositeValue> i : slicePathToValues.entrySet()) {
+    /**
+     * Adds an enum of the slice names for every sliced element below the node, also inside slices. Enums of slicing
+     * inside a slice are prefixed with the names of the enclosing slices. The extensions of the resource are
+     * generated as extension fields, their slicing gets no enum.
+     */
+    private void addSliceFields(StructureDefinitionProvider resolver, JavaClassSource javaClass, ElementTree.Node node, String prefix) {
+        if (node.getParent() != null && node.getParent().getParent() == null
+                && (node.getName().equals("extension") || node.getName().equals("modifierExtension"))) {
+            return;
+        }
+        if (node.isSliced()) {
             final JavaEnumSource enumClass = Roaster.create(JavaEnumSource.class);
-            String enumName = slicedPathToEnumType.get(i.getKey());
-            enumClass.setPackage(resolver.getOutPackage()).setName(convertNameToValidJavaIdentifier(enumName) + "Type");
-            for (CompositeValueField value : i.getValue().getFields()) {
-                enumClass.addEnumConstant().setName(convertNameToValidJavaIdentifier(value.name).toUpperCase());
-                // TODO: fix slicing
-                //System.out.println(value.fixedCode + " " + value.name + " " + value.type + " " + value.url);
+            String enumName = node.getElement().getShort() != null ? node.getElement().getShort() : StringUtils.capitalize(node.getName());
+            enumClass.setPackage(resolver.getOutPackage()).setName(prefix + convertNameToValidJavaIdentifier(enumName) + "Type");
+            for (ElementTree.Node slice : node.getSlices()) {
+                if (slice.getSliceName() != null) {
+                    enumClass.addEnumConstant().setName(convertNameToValidJavaIdentifier(slice.getSliceName()).toUpperCase());
+                }
             }
             javaClass.addNestedType(enumClass);
         }
+        for (ElementTree.Node child : node.getChildren()) {
+            addSliceFields(resolver, javaClass, child, prefix);
+        }
+        for (ElementTree.Node slice : node.getSlices()) {
+            String slicePrefix = slice.getSliceName() != null ? prefix + convertNameToValidJavaIdentifier(slice.getSliceName()) : prefix;
+            for (ElementTree.Node child : slice.getChildren()) {
+                addSliceFields(resolver, javaClass, child, slicePrefix);
+            }
+        }
     }
 
     private String convertNameToValidJavaIdentifier(String enumName) {
@@ -187,41 +325,7 @@ public class Generator {
         return b.toString().replaceAll("[ \\.\\?]", "");
     }
 
-    private Set<String> sliced = new HashSet<>();
-    private Map<String, String> slicedPathToEnumType = new HashMap<>();
-    private Map<String, CompositeValue> slicePathToValues = new HashMap<>();
-    private CompositeValue lastSlicedValue = null;
-    private CompositeValueField lastSlicedValueField = null;
-    private List<FieldSource<JavaClassSource>> existingFieldsChanged = new ArrayList<>();
-    private List<FieldSource<JavaClassSource>> extensionFieldsAdded = new ArrayList<>();
-
     private void addField(JavaClassSource javaClass, Map<String, ResourceParser.FieldInfo> fieldInfo, ElementDefinitionDt element, String elementName) {
-        if (!element.getSlicing().getDiscriminator().isEmpty()) {
-            sliced.add(element.getPath());
-            slicedPathToEnumType.put(element.getPath(), element.getShort());
-            lastSlicedValue = new CompositeValue(element.getPath(), element.getSlicing().getDescription());
-            slicePathToValues.put(element.getPath(), lastSlicedValue);
-        } else {
-            // The ElementDefinition is part of the last slice.
-            if (lastSlicedValue != null && element.getPath().startsWith(lastSlicedValue.path)) {
-                if (element.getPath().equals(lastSlicedValue.path)) {
-                    // This defines the name of slice.
-                    lastSlicedValueField = new CompositeValueField(element.getName());
-                    lastSlicedValue.fields.add(lastSlicedValueField);
-                } else if (element.getPath().equals(lastSlicedValue.path + ".code.coding.system")) {
-                    lastSlicedValueField.url = ((UriDt) element.getFixed()).getValue();
-                } else if (element.getPath().equals(lastSlicedValue.path + ".code.coding.code")) {
-                    lastSlicedValueField.fixedCode = String.valueOf(element.getFixed());
-                } else if (element.getPath().equals(lastSlicedValue.path + ".value[x]")) {
-                    lastSlicedValueField.type = String.valueOf(element.getFixed());
-                }
-                return;
-            } else if (elementName.indexOf('.') != -1) {
-                //Dont know why we need theese sub elements. (.code and .code.system etc..)
-                return;
-            }
-        }
-
         ResourceParser.FieldInfo inheritedField = fieldInfo.get(elementName.toLowerCase());
         FieldSource<JavaClassSource> field = javaClass.addField().setName("my" + StringUtils.capitalize(elementName)).setPrivate();
         existingFieldsChanged.add(field);
@@ -259,7 +363,7 @@ public class Generator {
     }
 
     private void setFieldTypeGeneric(JavaClassSource javaClass, ResourceParser.FieldInfo originalField, FieldSource<JavaClassSource> field) {
-        Class<?> typeClass = (Class<?>) ((ParameterizedType) originalField.getGenericType()).getActualTypeArguments()[0];
+        Class<?> typeClass = originalField.getTypeArgument();
         field.setType(originalField.getType().getCanonicalName() + "<" + typeClass.getSimpleName() + ">");
         javaClass.addImport(typeClass);
     }
@@ -287,7 +391,7 @@ public class Generator {
             if (extensionType != null) {
                 field.setType(extensionType);
             } else {
-                field.setType(Roaster.parse("public class " + StringUtils.capitalize(element.getName()) + " {}"));
+                field.setType(StringUtils.capitalize(element.getName()));
                 String errMsg = "Replace " + StringUtils.capitalize(element.getName()) + ".class with correct extension name";
                 addTodoAndDeprecationAnnotation(field, errMsg);
             }
@@ -310,7 +414,9 @@ public class Generator {
     }
 
     private Class<?> getExtensionType(ElementDefinitionDt element, StructureDefinitionProvider resolver) throws IOException {
+        PhaseTimer timer = PhaseTimer.start();
         StructureDefinition def = resolver.provideReferenceDefinition(element);
+        fieldsTimer.exclude(completed(timer, GenerationPhase.EXTENSION_RESOLUTION));
         for (ElementDefinitionDt el : def.getDifferential().getElement()) {
             if (el.getPath().equals("Extension.value[x]")) {
                 return getDSTU2ClassType(el.getTypeFirstRep());
@@ -360,8 +466,8 @@ public class Generator {
     private static Class<?> getClassFromType(@Nullable ElementDefinitionDt.Type input, ResourceParser.FieldInfo originalField) {
         switch (input.getCode()) {
             case "BackboneElement":
-                if (originalField.getGenericType() instanceof ParameterizedType) {
-                    return (Class<?>) ((ParameterizedType) originalField.getGenericType()).getActualTypeArguments()[0];
+                if (originalField.getTypeArgument() != null) {
+                    return originalField.getTypeArgument();
                 } else {
                     return originalField.getType();
                 }
@@ -375,15 +481,7 @@ public class Generator {
     }
 
     private static Class<?> getDSTU2ClassType(@Nullable ElementDefinitionDt.Type input) {
-        try {
-            try {
-                return Class.forName(DSTU2_PRIMITIVE_PACKAGE + "." + StringUtils.capitalize(input.getCode()) + "Dt");
-            } catch (ClassNotFoundException ee) {
-                return Class.forName(DSTU2_COMPOSITE_PACKAGE + "." + input.getCode() + "Dt");
-            }
-        } catch (ClassNotFoundException e) {
-            throw new IllegalStateException("Cannot locate class", e);
-        }
+        return Dstu2TypeRegistry.getInstance().getType(input.getCode());
     }
 
     private static class ClassToSimpleNameFunction implements Function<Class<?>, String> {
@@ -394,32 +492,6 @@ public class Generator {
         }
     }
 
-    private static class CompositeValue {
-        public String description;
-        public String path;
-        public List<CompositeValueField> fields = new ArrayList<>();
-
-        public CompositeValue(String path, String description) {
-            this.path = path;
-            this.description = description;
-        }
-
-        public List<CompositeValueField> getFields() {
-            return fields;
-        }
-    }
-
-    private static class CompositeValueField {
-        public String url;
-        public String name;
-        public String type;
-        public String fixedCode;
-
-        public CompositeValueField(String name) {
-            this.name = name;
-        }
-    }
-
     private static class FieldSourceGetNameFunction implements Function<FieldSource<JavaClassSource>, String> {
         @Nullable
         @Override
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends conversion requests to a {@link GeneratorDaemon} on this machine, authenticated with the token the daemon
+ * wrote to its token directory.
+ */
+public class GeneratorClient {
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private final int port;
+    private final File tokenDirectory;
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    public GeneratorClient(int port) {
+        this(port, GeneratorDaemon.DEFAULT_TOKEN_DIRECTORY);
+    }
+
+    /**
+     * @param tokenDirectory the token directory the daemon was started with.
+     */
+    public GeneratorClient(int port, File tokenDirectory) {
+        this.port = port;
+        this.tokenDirectory = tokenDirectory;
+    }
+
+    /**
+     * @param readTimeoutMillis how long to wait for the answer of the daemon, 0 to wait forever. A request fails with
+     *                          a {@link java.net.SocketTimeoutException} when the daemon does not answer in time.
+     */
+    public GeneratorClient setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return whether a daemon is listening on the port.
+     */
+    public boolean isAvailable() {
+        try {
+            connect().close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return one result per profile, in the order of the request.
+     * @throws IOException if the daemon cannot be reached. Failing profiles are reported in their result instead.
+     */
+    public List<DaemonResult> generate(DaemonRequest request) throws IOException {
+        try (Socket socket = connect()) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writeCommand(out, DaemonProtocol.GENERATE);
+            request.write(out);
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            readMagic(in);
+            int count = DaemonProtocol.readCount(in);
+            List<DaemonResult> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(DaemonResult.read(in));
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Stops the daemon. Requests in progress are completed.
+     */
+    public void stop() throws IOException {
+        try (Socket socket = connect()) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            writeCommand(out, DaemonProtocol.STOP);
+            out.flush();
+            readMagic(new DataInputStream(socket.getInputStream()));
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(readTimeoutMillis);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private void writeCommand(DataOutputStream out, byte command) throws IOException {
+        // Read for every command, the daemon writes a new token when it is restarted
+        byte[] token = DaemonProtocol.readToken(GeneratorDaemon.getTokenFile(tokenDirectory, port));
+        out.writeInt(DaemonProtocol.MAGIC);
+        out.write(token);
+        out.writeByte(command);
+    }
+
+    private static void readMagic(DataInputStream in) throws IOException {
+        if (in.readInt() != DaemonProtocol.MAGIC) {
+            throw new IOException("Not a generator daemon");
+        }
+    }
+}
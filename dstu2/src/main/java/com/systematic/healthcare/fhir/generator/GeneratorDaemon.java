@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import com.google.common.base.Joiner;
+import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A long running generator that keeps the FHIR context, the reflection metadata of {@link ResourceParser} and the
+ * parsed extension definitions warm between requests, so editors and builds do not pay JVM startup and warm-up for
+ * every conversion. Requests are accepted on a loopback socket, see {@link GeneratorClient}; the profiles of all
+ * concurrent requests share one pool of conversion threads.
+ * <p>
+ * The daemon reads and writes files on behalf of the processes that connect to it. It only serves clients that send
+ * the random token it writes to a file in the token directory when it starts, which is only readable by the user
+ * running the daemon. Referenced extension definitions are cached by file and modification time, so changed
+ * definitions are read again.
+ */
+public class GeneratorDaemon implements Closeable {
+    public static final int DEFAULT_PORT = 7411;
+    public static final File DEFAULT_TOKEN_DIRECTORY = new File(System.getProperty("user.home"), ".hapi-fhir-generator");
+    // How long a connected client may take to send its request
+    private static final int REQUEST_TIMEOUT_MILLIS = 30000;
+
+    private final int requestedPort;
+    private final File tokenDirectory;
+    private final ForkJoinPool conversions;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final CachingStructureDefinitionProvider.ReferenceCache referenceCache =
+            new CachingStructureDefinitionProvider.ReferenceCache(CachingStructureDefinitionProvider.DEFAULT_MAXIMUM_SIZE);
+    private final GenerationListener flightRecorder = GenerationListeners.flightRecorder();
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+    private byte[] token;
+    private File tokenFile;
+
+    /**
+     * @param port the loopback port to listen on, 0 for any free port.
+     */
+    public GeneratorDaemon(int port) {
+        this(port, Runtime.getRuntime().availableProcessors());
+    }
+
+    public GeneratorDaemon(int port, int parallelism) {
+        this(port, parallelism, DEFAULT_TOKEN_DIRECTORY);
+    }
+
+    /**
+     * @param tokenDirectory the directory the token file is written to, see {@link #getTokenFile}.
+     */
+    public GeneratorDaemon(int port, int parallelism, File tokenDirectory) {
+        this.requestedPort = port;
+        this.conversions = new ForkJoinPool(parallelism);
+        this.tokenDirectory = tokenDirectory;
+    }
+
+    /**
+     * @return the file holding the token of the daemon listening on the port.
+     */
+    public static File getTokenFile(File tokenDirectory, int port) {
+        return new File(tokenDirectory, "daemon-" + port + ".token");
+    }
+
+    /**
+     * Warms up the generator and starts accepting requests in the background.
+     *
+     * @return the port the daemon listens on.
+     */
+    public synchronized int start() throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Already started");
+        }
+        StructureDefinitionParser.getDefault();
+        ResourceParser.warmUp();
+        // Loads the Roaster model and JDT parser, the largest part of the first conversion after the reflection
+        Roaster.create(JavaClassSource.class).setName("WarmUp").addField("private String warmUp;");
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort));
+        token = new byte[DaemonProtocol.TOKEN_LENGTH];
+        new SecureRandom().nextBytes(token);
+        tokenFile = getTokenFile(tokenDirectory, serverSocket.getLocalPort());
+        try {
+            DaemonProtocol.writeToken(tokenFile, token);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "generator-daemon-" + serverSocket.getLocalPort());
+        acceptor.start();
+        return serverSocket.getLocalPort();
+    }
+
+    public synchronized int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    /**
+     * Blocks until the daemon is closed, locally or by a {@link GeneratorClient#stop()}.
+     */
+    public void awaitClose() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = acceptor;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        if (tokenFile != null) {
+            tokenFile.delete();
+        }
+        connections.shutdown();
+        conversions.shutdown();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                connections.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try (Socket connection = socket) {
+                            handle(connection);
+                        }
+                        return null;
+                    }
+                });
+            }
+        } catch (SocketException e) {
+            // Closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handle(Socket socket) throws IOException, InterruptedException {
+        socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != DaemonProtocol.MAGIC) {
+            return;
+        }
+        byte[] clientToken = new byte[DaemonProtocol.TOKEN_LENGTH];
+        in.readFully(clientToken);
+        if (!MessageDigest.isEqual(token, clientToken)) {
+            return;
+        }
+        byte command = in.readByte();
+        if (command == DaemonProtocol.STOP) {
+            out.writeInt(DaemonProtocol.MAGIC);
+            out.flush();
+            close();
+            return;
+        }
+        List<DaemonResult> results = generate(DaemonRequest.read(in));
+        out.writeInt(DaemonProtocol.MAGIC);
+        out.writeInt(results.size());
+        for (DaemonResult result : results) {
+            result.write(out);
+        }
+        out.flush();
+    }
+
+    List<DaemonResult> generate(final DaemonRequest request) throws InterruptedException {
+        final JavaSourceEmitter emitter = SourceEmitters.forName(request.getEmitter());
+        List<Future<DaemonResult>> futures = new ArrayList<>();
+        for (final File profile : request.getProfiles()) {
+            futures.add(conversions.submit(new Callable<DaemonResult>() {
+                @Override
+                public DaemonResult call() {
+                    return convert(profile, request, emitter);
+                }
+            }));
+        }
+        List<DaemonResult> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                results.add(failure(request.getProfiles().get(i), e.getCause(), new ArrayList<GenerationEvent>()));
+            }
+        }
+        return results;
+    }
+
+    private DaemonResult convert(File profile, DaemonRequest request, JavaSourceEmitter emitter) {
+        final List<GenerationEvent> events = new ArrayList<>();
+        GenerationListener listener = GenerationListeners.compose(new GenerationListener() {
+            @Override
+            public void phaseCompleted(GenerationEvent event) {
+                events.add(event);
+            }
+        }, flightRecorder);
+        final FileStructureDefinitionProvider fileProvider = new FileStructureDefinitionProvider(request.getOutPackage(), profile);
+        RecordingStructureDefinitionProvider provider = new RecordingStructureDefinitionProvider(
+                new CachingStructureDefinitionProvider(fileProvider, referenceCache) {
+                    @Override
+                    protected String getCacheKey(String url) throws IOException {
+                        // The cache outlives the edits of the extension files, and requests of different projects
+                        File file = fileProvider.getReferenceFile(url);
+                        return file.getAbsolutePath() + '@' + file.lastModified() + ':' + file.length();
+                    }
+                });
+        try {
+            JavaClassSource javaClass = Generator.generate(provider, listener, request.toOptions());
+            if (request.isVerify()) {
+                // Before writing, so a class that does not compile never reaches the source root
+                List<CompileDiagnostic> errors = new CompileVerifier().verify(Collections.singletonList(javaClass));
+                if (!errors.isEmpty()) {
+                    return new DaemonResult(profile, null, null, null, "Generated class does not compile:\n"
+                            + Joiner.on('\n').join(errors), new ArrayList<File>(), events);
+                }
+            }
+            GenerationEvent parsed = parseEvent(events);
+            String source = null;
+            File outputFile = null;
+            if (request.getOutDirectory() != null) {
+                DirectoryOutputSink sink = new DirectoryOutputSink(request.getOutDirectory());
+                new SourceFileWriter(emitter, listener, sink).write(javaClass, parsed);
+                outputFile = sink.getFile(SourceFileWriter.getPath(javaClass));
+            } else {
+                PhaseTimer timer = PhaseTimer.start();
+                StringBuilder rendered = new StringBuilder();
+                emitter.emit(javaClass, rendered);
+                listener.phaseCompleted(timer.stop(parsed.getProfile(), GenerationPhase.RENDER, parsed.getElementCount()));
+                source = rendered.toString();
+            }
+            List<File> referencedFiles = new ArrayList<>();
+            for (String url : provider.getReferencedUrls()) {
+                referencedFiles.add(fileProvider.getReferenceFile(url));
+            }
+            return new DaemonResult(profile, javaClass.getName(), source, outputFile, null, referencedFiles, events);
+        } catch (Exception e) {
+            return failure(profile, e, events);
+        }
+    }
+
+    private static GenerationEvent parseEvent(List<GenerationEvent> events) {
+        for (GenerationEvent event : events) {
+            if (event.getPhase() == GenerationPhase.PARSE) {
+                return event;
+            }
+        }
+        throw new IllegalStateException("No " + GenerationPhase.PARSE + " event reported");
+    }
+
+    private static DaemonResult failure(File profile, Throwable failure, List<GenerationEvent> events) {
+        StringWriter stackTrace = new StringWriter();
+        failure.printStackTrace(new PrintWriter(stackTrace));
+        return new DaemonResult(profile, null, null, null, stackTrace.toString(), new ArrayList<File>(), events);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+/**
+ * Switches for the code the {@link Generator} emits. The defaults produce the same classes as earlier versions.
+ */
+public class GeneratorOptions {
+    private boolean allocationFreeAccessors;
+
+    public boolean isAllocationFreeAccessors() {
+        return allocationFreeAccessors;
+    }
+
+    /**
+     * Emits {@code isEmpty()} as a chain of null and emptiness checks instead of a varargs call, and list accessors
+     * that do not allocate on reads: {@code getX()} returns a shared empty list while nothing was added, and
+     * {@code addX()} creates the list, presized to the element's {@code max} when that is below the
+     * {@link java.util.ArrayList} default of 10. The inherited {@code addX(T)} is overridden to create the list as
+     * well. Callers must add through these or {@code setX(List)} rather than through the list returned by
+     * {@code getX()}, which throws {@link UnsupportedOperationException} while the list is empty. {@code getXFirstRep()} still adds an element when there is none, as in HAPI. The
+     * generated accessors say so in their Javadoc.
+     */
+    public GeneratorOptions setAllocationFreeAccessors(boolean allocationFreeAccessors) {
+        this.allocationFreeAccessors = allocationFreeAccessors;
+        return this;
+    }
+}
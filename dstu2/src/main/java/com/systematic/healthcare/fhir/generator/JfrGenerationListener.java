@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Commits each phase as a {@code com.systematic.healthcare.fhir.generator.Phase} event, so conversions show up in a
+ * flight recording, e.g. {@code -XX:StartFlightRecording=filename=generator.jfr}. Only loaded through
+ * {@link GenerationListeners#flightRecorder()}, as the {@code jdk.jfr} API is missing on older JVMs.
+ */
+class JfrGenerationListener implements GenerationListener {
+
+    @Override
+    public void phaseCompleted(GenerationEvent event) {
+        PhaseEvent phase = new PhaseEvent();
+        if (phase.isEnabled()) {
+            phase.profile = event.getProfile();
+            phase.phase = event.getPhase().name();
+            phase.elementCount = event.getElementCount();
+            phase.phaseDuration = event.getDurationNanos();
+            phase.allocated = event.getAllocatedBytes();
+            phase.commit();
+        }
+    }
+
+    @Name("com.systematic.healthcare.fhir.generator.Phase")
+    @Label("Profile Conversion Phase")
+    @Category("FHIR Profile Generator")
+    @Description("A completed phase of converting a structure definition to Java")
+    static class PhaseEvent extends Event {
+        @Label("Profile")
+        String profile;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Element Count")
+        int elementCount;
+
+        @Label("Phase Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long phaseDuration;
+
+        @Label("Allocated")
+        @DataAmount(DataAmount.BYTES)
+        long allocated;
+    }
+}
@@ -16,28 +16,128 @@
 package com.systematic.healthcare.fhir.generator;
 
 import java.io.File;
-import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import org.jboss.forge.roaster.model.source.JavaClassSource;
 
 public class Main {
 
 
+	/**
+	 * Without arguments the sample profiles are converted in this JVM. {@code --serve [port]} starts a
+	 * {@link GeneratorDaemon} instead, and {@code --daemon=port} converts the samples through a running daemon.
+	 * {@code --verify} compiles the converted samples in memory with {@link CompileVerifier},
+	 * {@code --allocation-free} converts with {@link GeneratorOptions#setAllocationFreeAccessors(boolean)} and
+	 * {@code --registry} also writes the {@link ProfileRegistryGenerator} class. {@code --zip=file} writes the
+	 * sources into a zip or source jar instead of the source folder. {@code --emitter=name} selects the
+	 * {@link SourceEmitters emitter}, {@code roaster} by default.
+	 */
 	public static void main(String [] args) throws Exception {
+		if (args.length > 0 && args[0].equals("--serve")) {
+			serve(args.length > 1 ? Integer.parseInt(args[1]) : GeneratorDaemon.DEFAULT_PORT);
+			return;
+		}
 		String someOutputPackageName = "com.systematic.healthcare.fhir.generator.generated";
 		String [] fileNames = {"FunctioningCondition.xml"};
 		
 		String someReadingDirectory = new File(".").getAbsolutePath() + "\\dstu2\\src\\test\\resources";
-		String someWritingDirectory = new File(".").getAbsolutePath() + "\\dstu2\\src\\test\\java\\" + someOutputPackageName.replaceAll("\\.", "/");
-		new File(someWritingDirectory).mkdirs();
+		String someSourceRoot = new File(".").getAbsolutePath() + "\\dstu2\\src\\test\\java";
 		
+		if (args.length > 0 && args[0].startsWith("--daemon=")) {
+			List<File> files = new ArrayList<>();
+			for (String s : fileNames) {
+				files.add(new File(someReadingDirectory, s));
+			}
+			DaemonRequest request = new DaemonRequest(someOutputPackageName, files).setOutDirectory(new File(someSourceRoot))
+					.setAllocationFreeAccessors(Arrays.asList(args).contains("--allocation-free"))
+					.setVerify(Arrays.asList(args).contains("--verify"));
+			convertWithDaemon(Integer.parseInt(args[0].substring("--daemon=".length())), request);
+			return;
+		}
 
+
+        List<StructureDefinitionProvider> providers = new ArrayList<>();
+        CachingStructureDefinitionProvider.ReferenceCache referenceCache =
+                new CachingStructureDefinitionProvider.ReferenceCache(CachingStructureDefinitionProvider.DEFAULT_MAXIMUM_SIZE);
         for (String s : fileNames) {
-            StructureDefinitionProvider provider = new FileStructureDefinitionProvider(
+            providers.add(new CachingStructureDefinitionProvider(new FileStructureDefinitionProvider(
                     someOutputPackageName,
-                    new File(someReadingDirectory, s));
-            JavaClassSource javaClass = Generator.generate(provider);
-            Files.write(new File(new File(someWritingDirectory), javaClass.getName()+".java").toPath(), javaClass.toString().getBytes("UTF-8"));
+                    new File(someReadingDirectory, s)), referenceCache));
+        }
+        GenerationSummary summary = new GenerationSummary();
+        GenerationListener listener = GenerationListeners.compose(summary, GenerationListeners.flightRecorder());
+        BatchResult result;
+        try (BatchGenerator generator = new BatchGenerator()) {
+            GeneratorOptions options = new GeneratorOptions().setAllocationFreeAccessors(Arrays.asList(args).contains("--allocation-free"));
+            GenerationPlan plan = generator.plan(providers);
+            // The problems of the plan are reported with the failures
+            for (Map.Entry<StructureDefinitionProvider, String> warning : plan.getWarnings().entrySet()) {
+                System.err.println("Warning for " + warning.getKey() + ": " + warning.getValue());
+            }
+            result = generator.generate(plan, listener, options);
+        }
+        String zip = null;
+        String emitter = SourceEmitters.ROASTER;
+        for (String arg : args) {
+            if (arg.startsWith("--zip=")) {
+                zip = arg.substring("--zip=".length());
+            } else if (arg.startsWith("--emitter=")) {
+                emitter = arg.substring("--emitter=".length());
+            }
+        }
+        try (OutputSink sink = zip != null ? new ZipOutputSink(new File(zip)) : new DirectoryOutputSink(new File(someSourceRoot))) {
+            SourceFileWriter writer = new SourceFileWriter(SourceEmitters.forName(emitter), listener, sink);
+            for (Map.Entry<StructureDefinitionProvider, JavaClassSource> generated : result.getGenerated().entrySet()) {
+                writer.write(generated.getValue(), result.getParseEvent(generated.getKey()));
+            }
+            if (Arrays.asList(args).contains("--registry")) {
+                writer.write(ProfileRegistryGenerator.generate(someOutputPackageName, result.getGenerated().values()), null);
+            }
+            System.out.println(sink.getWrittenCount() + " written, " + sink.getSkippedCount() + " unchanged");
+        }
+        System.out.print(summary.report());
+        boolean failed = result.hasFailures();
+        for (Map.Entry<StructureDefinitionProvider, Throwable> failure : result.getFailures().entrySet()) {
+            System.err.println("Failed to convert " + failure.getKey() + ": " + failure.getValue());
+        }
+        if (Arrays.asList(args).contains("--verify")) {
+            List<CompileDiagnostic> errors = new CompileVerifier().verify(result.getGenerated().values());
+            for (CompileDiagnostic error : errors) {
+                System.err.println(error);
+            }
+            failed |= !errors.isEmpty();
+        }
+        if (failed) {
+            System.exit(1);
+        }
+        System.out.println("Success");
+    }
+
+    private static void serve(int port) throws Exception {
+        try (GeneratorDaemon daemon = new GeneratorDaemon(port)) {
+            System.out.println("Generator daemon listening on 127.0.0.1:" + daemon.start());
+            daemon.awaitClose();
+        }
+    }
+
+    private static void convertWithDaemon(int port, DaemonRequest request) throws Exception {
+        GenerationSummary summary = new GenerationSummary();
+        boolean failed = false;
+        for (DaemonResult result : new GeneratorClient(port).generate(request)) {
+            for (GenerationEvent event : result.getEvents()) {
+                summary.phaseCompleted(event);
+            }
+            if (!result.isSuccess()) {
+                System.err.println("Failed to convert " + result.getProfile() + ": " + result.getFailure());
+                failed = true;
+            }
+        }
+        System.out.print(summary.report());
+        if (failed) {
+            System.exit(1);
         }
         System.out.println("Success");
     }
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.api.BaseIdentifiableElement;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.util.VersionUtil;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The field and accessor metadata {@link ResourceParser} reflects over, for all DSTU2 resources, composite datatypes
+ * and their nested block elements, written once at build time by {@link #main}. {@link ResourceParser} reads it from
+ * the classpath instead of walking the class hierarchies, and reflects over classes it does not hold. A snapshot
+ * written for another HAPI FHIR version is ignored.
+ * <p>
+ * The format is a string table followed by an index of class names to entries, which are only decoded when their
+ * class is first parsed. Strings are referenced by their index in the table.
+ */
+final class ModelSnapshot {
+    static final String RESOURCE = "dstu2-model.snapshot";
+    private static final int MAGIC = 0x46484d53;
+    private static final int FORMAT_VERSION = 1;
+    private static final int NONE = 0xffff;
+    private static final ModelSnapshot EMPTY = new ModelSnapshot(new byte[0], 0, new String[0], Collections.<String, Integer>emptyMap());
+
+    private final byte[] data;
+    private final int entriesStart;
+    private final String[] strings;
+    private final Map<String, Integer> offsets;
+
+    private ModelSnapshot(byte[] data, int entriesStart, String[] strings, Map<String, Integer> offsets) {
+        this.data = data;
+        this.entriesStart = entriesStart;
+        this.strings = strings;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Writes the snapshot of the DSTU2 model to {@code <directory>/com/systematic/healthcare/fhir/generator}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: ModelSnapshot <output directory>");
+        }
+        File file = new File(args[0], ModelSnapshot.class.getPackage().getName().replace('.', '/') + "/" + RESOURCE);
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + file.getParentFile());
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(modelClasses(), out);
+        }
+    }
+
+    static ModelSnapshot getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @return the fields of the class as {@link ResourceParser#parseReflectively} would return them, or null when the
+     * class is not part of the snapshot.
+     */
+    Map<String, ResourceParser.FieldInfo> getFieldInfo(Class<?> type) {
+        Integer offset = offsets.get(type.getName());
+        if (offset == null) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, entriesStart + offset, data.length - entriesStart - offset));
+        Map<String, Class<?>> classes = new HashMap<>();
+        ClassLoader loader = type.getClassLoader();
+        try {
+            int count = in.readUnsignedShort();
+            List<ResourceParser.FieldInfo> fields = new ArrayList<>(count);
+            Map<String, ResourceParser.FieldInfo> result = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                int parent = in.readUnsignedShort();
+                String name = readString(in);
+                Class<?> declaringClass = loadClass(readString(in), loader, classes);
+                Class<?> fieldType = loadClass(readString(in), loader, classes);
+                String typeArgument = readString(in);
+                ResourceParser.FieldInfo field = new ResourceParser.FieldInfo(name, declaringClass, fieldType,
+                        typeArgument != null ? loadClass(typeArgument, loader, classes) : null,
+                        readString(in), in.readInt(), in.readInt(), in.readInt());
+                if (parent != NONE) {
+                    field.setParent(fields.get(parent));
+                }
+                int methods = in.readUnsignedShort();
+                for (int j = 0; j < methods; j++) {
+                    String methodClass = readString(in);
+                    String methodName = readString(in);
+                    String returnType = readString(in);
+                    String[] parameterTypes = new String[in.readUnsignedByte()];
+                    for (int k = 0; k < parameterTypes.length; k++) {
+                        parameterTypes[k] = readString(in);
+                    }
+                    field.addAccessor(new ResourceParser.MethodInfo(methodClass, methodName, returnType, parameterTypes));
+                }
+                fields.add(field);
+                // Parents are written before the fields hiding them
+                result.put(field.getLowercaseName(), field);
+            }
+            return result;
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt model snapshot entry for " + type.getName(), e);
+        }
+    }
+
+    int size() {
+        return offsets.size();
+    }
+
+    static ModelSnapshot read(byte[] data) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        DataInputStream in = new DataInputStream(bytes);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a model snapshot");
+        }
+        if (in.readUnsignedShort() != FORMAT_VERSION || !in.readUTF().equals(VersionUtil.getVersion())) {
+            return EMPTY;
+        }
+        String[] strings = new String[in.readUnsignedShort()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        int classes = in.readUnsignedShort();
+        Map<String, Integer> offsets = new HashMap<>(classes * 2);
+        for (int i = 0; i < classes; i++) {
+            offsets.put(strings[in.readUnsignedShort()], in.readInt());
+        }
+        return new ModelSnapshot(data, data.length - bytes.available(), strings, offsets);
+    }
+
+    /**
+     * Writes the reflected metadata of the given classes. Classes {@link ResourceParser} cannot parse are left out,
+     * so they fail the same way when they are used.
+     */
+    static void write(Iterable<Class<?>> types, OutputStream out) throws IOException {
+        StringTable strings = new StringTable();
+        Map<Integer, Integer> offsets = new LinkedHashMap<>();
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream entriesOut = new DataOutputStream(entries);
+        for (Class<?> type : types) {
+            Map<String, ResourceParser.FieldInfo> fieldInfo;
+            try {
+                fieldInfo = ResourceParser.parseReflectively(type);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            offsets.put(strings.indexOf(type.getName()), entriesOut.size());
+            writeEntry(fieldInfo, strings, entriesOut);
+        }
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeShort(FORMAT_VERSION);
+        dataOut.writeUTF(VersionUtil.getVersion());
+        dataOut.writeShort(strings.size());
+        for (String string : strings.strings.keySet()) {
+            dataOut.writeUTF(string);
+        }
+        dataOut.writeShort(offsets.size());
+        for (Map.Entry<Integer, Integer> offset : offsets.entrySet()) {
+            dataOut.writeShort(offset.getKey());
+            dataOut.writeInt(offset.getValue());
+        }
+        entriesOut.flush();
+        entries.writeTo(dataOut);
+        dataOut.flush();
+    }
+
+    private static void writeEntry(Map<String, ResourceParser.FieldInfo> fieldInfo, StringTable strings, DataOutputStream out) throws IOException {
+        List<ResourceParser.FieldInfo> fields = new ArrayList<>();
+        for (ResourceParser.FieldInfo field : fieldInfo.values()) {
+            List<ResourceParser.FieldInfo> hierarchy = new ArrayList<>();
+            for (ResourceParser.FieldInfo current = field; current != null; current = current.getParent()) {
+                hierarchy.add(0, current);
+            }
+            fields.addAll(hierarchy);
+        }
+        out.writeShort(fields.size());
+        for (ResourceParser.FieldInfo field : fields) {
+            out.writeShort(field.getParent() != null ? fields.indexOf(field.getParent()) : NONE);
+            out.writeShort(strings.indexOf("my" + field.getOrigFieldName()));
+            out.writeShort(strings.indexOf(field.getDeclaringClass().getName()));
+            out.writeShort(strings.indexOf(field.getType().getName()));
+            out.writeShort(field.getTypeArgument() != null ? strings.indexOf(field.getTypeArgument().getName()) : NONE);
+            out.writeShort(strings.indexOf(field.getLowercaseName()));
+            out.writeInt(field.getMin());
+            out.writeInt(field.getMax());
+            out.writeInt(field.getOrder());
+            out.writeShort(field.getAccessors().size());
+            for (ResourceParser.MethodInfo method : field.getAccessors()) {
+                out.writeShort(strings.indexOf(method.getDeclaringClassName()));
+                out.writeShort(strings.indexOf(method.getName()));
+                out.writeShort(strings.indexOf(method.getReturnTypeName()));
+                out.writeByte(method.getParameterCount());
+                for (String parameterType : method.getParameterTypeNames()) {
+                    out.writeShort(strings.indexOf(parameterType));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the DSTU2 resources and composite datatypes, each followed by its nested block elements.
+     */
+    static Set<Class<?>> modelClasses() {
+        Set<String> classNames = new LinkedHashSet<>(Dstu2Model.definitions(Dstu2Model.RESOURCE_PREFIX).values());
+        classNames.addAll(Dstu2Model.definitions(Dstu2Model.DATATYPE_PREFIX).values());
+        Set<Class<?>> classes = new LinkedHashSet<>();
+        for (String className : classNames) {
+            Class<?> type;
+            try {
+                type = Class.forName(className);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Cannot locate model class " + className, e);
+            }
+            if (IResource.class.isAssignableFrom(type) || BaseIdentifiableElement.class.isAssignableFrom(type)) {
+                classes.add(type);
+                for (Class<?> nested : type.getDeclaredClasses()) {
+                    if (BaseIdentifiableElement.class.isAssignableFrom(nested)) {
+                        classes.add(nested);
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int index = in.readUnsignedShort();
+        return index != NONE ? strings[index] : null;
+    }
+
+    private static Class<?> loadClass(String name, ClassLoader loader, Map<String, Class<?>> classes) throws ClassNotFoundException {
+        Class<?> type = classes.get(name);
+        if (type == null) {
+            type = Class.forName(name, false, loader);
+            classes.put(name, type);
+        }
+        return type;
+    }
+
+    private static class StringTable {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+        int indexOf(String string) {
+            Integer index = strings.get(string);
+            if (index == null) {
+                if (strings.size() == NONE) {
+                    throw new IllegalStateException("Too many strings for a model snapshot");
+                }
+                index = strings.size();
+                strings.put(string, index);
+            }
+            return index;
+        }
+
+        int size() {
+            return strings.size();
+        }
+    }
+
+    private static class Holder {
+        static final ModelSnapshot INSTANCE = readClasspath();
+
+        private static ModelSnapshot readClasspath() {
+            try (InputStream in = ModelSnapshot.class.getResourceAsStream(RESOURCE)) {
+                return in != null ? read(ByteStreams.toByteArray(in)) : EMPTY;
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read model snapshot " + RESOURCE, e);
+            }
+        }
+    }
+}
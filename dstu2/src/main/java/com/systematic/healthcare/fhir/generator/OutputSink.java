@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where generated sources are written to. Content identical to what is already there is not written again, so file
+ * timestamps only change for classes that really changed and incremental compilers only see those.
+ */
+public interface OutputSink extends Closeable {
+    /**
+     * @param path    the path of the file relative to the root of the sink, with {@code /} as separator.
+     * @param content the content of the file.
+     * @return true if the content was written, false if it was identical to the existing content and skipped.
+     */
+    boolean write(String path, byte[] content) throws IOException;
+
+    int getWrittenCount();
+
+    int getSkippedCount();
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+
+import java.io.IOException;
+
+/**
+ * Provides a profile from a {@link StructureDefinitionPackage}, resolving referenced definitions within the package.
+ */
+public class PackageStructureDefinitionProvider implements StructureDefinitionProvider {
+    private final String outPackage;
+    private final StructureDefinitionPackage structurePackage;
+    private final String structureUrl;
+
+    public PackageStructureDefinitionProvider(String outPackage, StructureDefinitionPackage structurePackage, String structureUrl) {
+        this.outPackage = outPackage;
+        this.structurePackage = structurePackage;
+        this.structureUrl = structureUrl;
+    }
+
+    public String getOutPackage() {
+        return outPackage;
+    }
+
+    @Override
+    public StructureDefinition getDefinition() throws IOException {
+        StructureDefinition definition = structurePackage.getDefinition(structureUrl);
+        if (definition == null) {
+            throw new IOException("Package does not contain " + structureUrl);
+        }
+        return definition;
+    }
+
+    @Override
+    public StructureDefinition provideReferenceDefinition(ElementDefinitionDt element) throws IOException {
+        return structurePackage.getDefinition(element.getTypeFirstRep().getProfileFirstRep().getValue());
+    }
+
+    @Override
+    public String toString() {
+        return structureUrl;
+    }
+}
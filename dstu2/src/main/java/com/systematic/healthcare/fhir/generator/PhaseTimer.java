@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the duration of a phase and the bytes the current thread allocates during it. Allocation is measured
+ * with {@code com.sun.management.ThreadMXBean} where the JVM supports it, otherwise it is reported as -1.
+ */
+public final class PhaseTimer {
+    private static final com.sun.management.ThreadMXBean THREADS = allocationMeasuringThreads();
+
+    private final long startNanos;
+    private final long startBytes;
+    private long excludedNanos;
+    private long excludedBytes;
+
+    private PhaseTimer() {
+        this.startNanos = System.nanoTime();
+        this.startBytes = allocatedBytes();
+    }
+
+    public static PhaseTimer start() {
+        return new PhaseTimer();
+    }
+
+    /**
+     * Excludes a nested phase that is reported on its own.
+     */
+    public void exclude(GenerationEvent nested) {
+        excludedNanos += nested.getDurationNanos();
+        excludedBytes += Math.max(nested.getAllocatedBytes(), 0);
+    }
+
+    public GenerationEvent stop(String profile, GenerationPhase phase, int elementCount) {
+        long bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes - excludedBytes;
+        return new GenerationEvent(profile, phase, elementCount, System.nanoTime() - startNanos - excludedNanos, bytes);
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, -1 if the JVM does not measure allocation.
+     */
+    public static long allocatedBytes() {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationMeasuringThreads() {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+                ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+                return (com.sun.management.ThreadMXBean) threads;
+            }
+        } catch (LinkageError | UnsupportedOperationException e) {
+            // Not a HotSpot compatible JVM
+        }
+        return null;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link GenerationPipeline} run. Only the written files are kept, not the generated classes.
+ * Both maps are in the order the profiles completed.
+ */
+public class PipelineResult {
+    private final Map<StructureDefinitionProvider, File> written = new LinkedHashMap<>();
+    private final Map<StructureDefinitionProvider, Throwable> failures = new LinkedHashMap<>();
+
+    synchronized void addWritten(StructureDefinitionProvider provider, File file) {
+        written.put(provider, file);
+    }
+
+    synchronized void addFailure(StructureDefinitionProvider provider, Throwable failure) {
+        failures.put(provider, failure);
+    }
+
+    public synchronized Map<StructureDefinitionProvider, File> getWritten() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(written));
+    }
+
+    public synchronized Map<StructureDefinitionProvider, Throwable> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    public synchronized boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.model.api.annotation.Extension;
+import ca.uhn.fhir.model.api.annotation.ResourceDef;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.source.AnnotationSource;
+import org.jboss.forge.roaster.model.source.FieldSource;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a registry class listing the generated profile classes of a package, so servers can register them with
+ * a {@link FhirContext} at startup instead of paying for the model scan on the first request for each profile.
+ * <p>
+ * The registry is built from the generated classes themselves: their {@code @ResourceDef} and the {@code @Extension}
+ * annotations of their fields. Classes without a {@code @ResourceDef} are skipped.
+ */
+public final class ProfileRegistryGenerator {
+    public static final String DEFAULT_CLASS_NAME = "ProfileRegistry";
+
+    // Roaster cannot parse bounded wildcards in field and method types, so the types are Class<?>
+    private static final String RESOURCE_TYPE = "Class<?>";
+
+    private ProfileRegistryGenerator() {
+    }
+
+    public static JavaClassSource generate(String outPackage, Collection<JavaClassSource> profiles) {
+        return generate(outPackage, DEFAULT_CLASS_NAME, profiles);
+    }
+
+    public static JavaClassSource generate(String outPackage, String className, Collection<JavaClassSource> profiles) {
+        Map<String, List<String>> extensionUrls = new LinkedHashMap<>();
+        for (JavaClassSource profile : profiles) {
+            if (profile.hasAnnotation(ResourceDef.class)) {
+                String name = outPackage.equals(profile.getPackage()) ? profile.getName() : profile.getQualifiedName();
+                extensionUrls.put(name, extensionUrls(profile));
+            }
+        }
+
+        JavaClassSource registry = Roaster.create(JavaClassSource.class);
+        registry.setPackage(outPackage).setName(className).setFinal(true);
+        registry.addImport(FhirContext.class);
+        registry.addImport(RuntimeResourceDefinition.class);
+        registry.addImport(IBaseResource.class);
+        registry.addImport(ArrayList.class);
+        registry.addImport(Arrays.class);
+        registry.addImport(Collections.class);
+        registry.addImport(LinkedHashMap.class);
+        registry.addImport(List.class);
+        registry.addImport(Map.class);
+
+        registry.addField().setName("RESOURCE_TYPES").setPublic().setStatic(true).setFinal(true)
+                .setType("List<" + RESOURCE_TYPE + ">").setLiteralInitializer("createResourceTypes()");
+        registry.addField().setName("EXTENSION_URLS").setPublic().setStatic(true).setFinal(true)
+                .setType("Map<" + RESOURCE_TYPE + ", List<String>>").setLiteralInitializer("createExtensionUrls()");
+
+        registry.addMethod().setConstructor(true).setPrivate().setBody("");
+        registry.addMethod().setName("newFhirContext").setPublic().setStatic(true).setReturnType("FhirContext")
+                .setBody("return new FhirContext(RESOURCE_TYPES.toArray(new Class<?>[RESOURCE_TYPES.size()]));")
+                .getJavaDoc().setText("Creates a context with all profile classes scanned in one pass.");
+        registry.addMethod().setName("register").setPublic().setStatic(true).setReturnType("List<RuntimeResourceDefinition>")
+                .setBody("List<RuntimeResourceDefinition> definitions = new ArrayList<>(RESOURCE_TYPES.size());\n" +
+                        "for (" + RESOURCE_TYPE + " type : RESOURCE_TYPES) {\n" +
+                        "  definitions.add(context.getResourceDefinition(type.asSubclass(IBaseResource.class)));\n" +
+                        "}\n" +
+                        "return definitions;")
+                .addParameter("FhirContext", "context");
+        registry.getMethod("register", "FhirContext").getJavaDoc()
+                .setText("Scans the profile classes into an existing context, so they can be resolved by profile id.");
+
+        StringBuilder resourceTypes = new StringBuilder("List<" + RESOURCE_TYPE + "> types = new ArrayList<>(" + extensionUrls.size() + ");\n");
+        StringBuilder urls = new StringBuilder("Map<" + RESOURCE_TYPE + ", List<String>> urls = new LinkedHashMap<>();\n");
+        for (Map.Entry<String, List<String>> profile : extensionUrls.entrySet()) {
+            resourceTypes.append("types.add(").append(profile.getKey()).append(".class);\n");
+            urls.append("urls.put(").append(profile.getKey()).append(".class, ");
+            if (profile.getValue().isEmpty()) {
+                urls.append("Collections.<String>emptyList()");
+            } else {
+                urls.append("Collections.unmodifiableList(Arrays.asList(");
+                for (int i = 0; i < profile.getValue().size(); i++) {
+                    urls.append(i > 0 ? ", " : "").append('"').append(profile.getValue().get(i)).append('"');
+                }
+                urls.append("))");
+            }
+            urls.append(");\n");
+        }
+        registry.addMethod().setName("createResourceTypes").setPrivate().setStatic(true).setReturnType("List<" + RESOURCE_TYPE + ">")
+                .setBody(resourceTypes.append("return Collections.unmodifiableList(types);").toString());
+        registry.addMethod().setName("createExtensionUrls").setPrivate().setStatic(true).setReturnType("Map<" + RESOURCE_TYPE + ", List<String>>")
+                .setBody(urls.append("return Collections.unmodifiableMap(urls);").toString());
+        return registry;
+    }
+
+    private static List<String> extensionUrls(JavaClassSource profile) {
+        List<String> urls = new ArrayList<>();
+        for (FieldSource<JavaClassSource> field : profile.getFields()) {
+            AnnotationSource<JavaClassSource> extension = field.getAnnotation(Extension.class);
+            if (extension != null) {
+                urls.add(extension.getStringValue("url"));
+            }
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Decorates a provider and records the urls of all definitions referenced while converting its profile.
+ */
+public class RecordingStructureDefinitionProvider implements StructureDefinitionProvider {
+    private final StructureDefinitionProvider delegate;
+    private final Set<String> referencedUrls = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+    public RecordingStructureDefinitionProvider(StructureDefinitionProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getOutPackage() {
+        return delegate.getOutPackage();
+    }
+
+    @Override
+    public StructureDefinition getDefinition() throws IOException {
+        return delegate.getDefinition();
+    }
+
+    @Override
+    public StructureDefinition provideReferenceDefinition(ElementDefinitionDt element) throws IOException {
+        referencedUrls.add(element.getTypeFirstRep().getProfileFirstRep().getValue());
+        return delegate.provideReferenceDefinition(element);
+    }
+
+    public StructureDefinitionProvider getDelegate() {
+        return delegate;
+    }
+
+    public Set<String> getReferencedUrls() {
+        synchronized (referencedUrls) {
+            return new LinkedHashSet<>(referencedUrls);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
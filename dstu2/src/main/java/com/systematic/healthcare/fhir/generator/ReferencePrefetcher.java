@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import java.io.Closeable;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Fetches documents in the background with at most a given number of concurrent fetches per host. Shared by the
+ * {@link UrlStructureDefinitionProvider}s of a batch, so the limit holds across profiles.
+ */
+public class ReferencePrefetcher implements Closeable {
+    public static final int DEFAULT_CONNECTIONS_PER_HOST = 4;
+
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int connectionsPerHost;
+    private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+    public ReferencePrefetcher() {
+        this(DEFAULT_CONNECTIONS_PER_HOST);
+    }
+
+    public ReferencePrefetcher(int connectionsPerHost) {
+        this(Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "reference-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }), true, connectionsPerHost);
+    }
+
+    /**
+     * Runs the fetches on the given executor, which is not shut down when this prefetcher is closed. Fetches waiting
+     * for their host occupy a thread of the executor.
+     */
+    public ReferencePrefetcher(ExecutorService executor, int connectionsPerHost) {
+        this(executor, false, connectionsPerHost);
+    }
+
+    private ReferencePrefetcher(ExecutorService executor, boolean ownsExecutor, int connectionsPerHost) {
+        if (connectionsPerHost < 1) {
+            throw new IllegalArgumentException("connectionsPerHost must be positive, was " + connectionsPerHost);
+        }
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.connectionsPerHost = connectionsPerHost;
+    }
+
+    /**
+     * Starts fetching a url. The fetch waits while {@code connectionsPerHost} fetches of the same host are running.
+     */
+    public <T> Future<T> submit(URL url, final Callable<T> fetch) {
+        final Semaphore host = host(url);
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                host.acquire();
+                try {
+                    return fetch.call();
+                } finally {
+                    host.release();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private Semaphore host(URL url) {
+        String key = url.getProtocol() + "://" + url.getAuthority();
+        Semaphore host = hosts.get(key);
+        if (host == null) {
+            Semaphore created = new Semaphore(connectionsPerHost);
+            host = hosts.putIfAbsent(key, created);
+            if (host == null) {
+                host = created;
+            }
+        }
+        return host;
+    }
+}
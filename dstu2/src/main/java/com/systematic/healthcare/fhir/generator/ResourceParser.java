@@ -19,9 +19,12 @@ import ca.uhn.fhir.model.api.BaseIdentifiableElement;
 import ca.uhn.fhir.model.api.IResource;
 import ca.uhn.fhir.model.api.annotation.Child;
 import ca.uhn.fhir.model.dstu2.resource.Observation;
+import com.google.common.primitives.Primitives;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.*;
 
 public class ResourceParser {
@@ -36,17 +39,98 @@ public class ResourceParser {
 
     }
 
+    private static final Comparator<Method> METHOD_ORDER = new Comparator<Method>() {
+        @Override
+        public int compare(Method m1, Method m2) {
+            int result = m1.getName().compareTo(m2.getName());
+            return result != 0 ? result : m1.toString().compareTo(m2.toString());
+        }
+    };
+
+    /**
+     * Field metadata is computed once per class and shared by all parsers, read from the {@link ModelSnapshot} when
+     * it holds the class and reflected otherwise. The cached maps and {@link FieldInfo} instances are never modified
+     * after they have been published.
+     */
+    private static final ClassValue<Map<String, FieldInfo>> FIELD_INFO = new ClassValue<Map<String, FieldInfo>>() {
+        @Override
+        protected Map<String, FieldInfo> computeValue(Class<?> type) {
+            Map<String, FieldInfo> fieldInfo = ModelSnapshot.getInstance().getFieldInfo(type);
+            if (fieldInfo == null) {
+                fieldInfo = parseReflectively(type);
+            }
+            return Collections.unmodifiableMap(fieldInfo);
+        }
+    };
+
+    private final ModelSnapshot snapshot;
+
+    public ResourceParser() {
+        this(null);
+    }
+
+    /**
+     * @param snapshot read instead of the shared metadata when not null, for comparing a snapshot with reflection.
+     */
+    ResourceParser(ModelSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
     public Map<String, FieldInfo> parseElement(Class<? extends BaseIdentifiableElement> element) {
-        Stack<Class<?>> stack = parseStack(element);
-        return parseAnnotatedFields(stack);
+        return fieldInfo(element);
     }
 
     public Map<String, FieldInfo> parseResource(Class<? extends IResource> resource) {
-        Stack<Class<?>> stack = parseStack(resource);
-        return parseAnnotatedFields(stack);
+        return fieldInfo(resource);
     }
 
-    private Stack<Class<?>> parseStack(Class<?> resource) {
+    private Map<String, FieldInfo> fieldInfo(Class<?> type) {
+        if (snapshot == null) {
+            return FIELD_INFO.get(type);
+        }
+        Map<String, FieldInfo> fieldInfo = snapshot.getFieldInfo(type);
+        return Collections.unmodifiableMap(fieldInfo != null ? fieldInfo : parseReflectively(type));
+    }
+
+    /**
+     * Eagerly parses all DSTU2 resources and their nested block elements, so later conversions
+     * do not pay for the reflection. Resources the parser cannot handle are skipped.
+     *
+     * @return the reasons the skipped resources could not be parsed, by class name.
+     */
+    public static Map<String, String> warmUp() {
+        Map<String, String> skipped = new TreeMap<>();
+        ResourceParser parser = new ResourceParser();
+        for (String className : Dstu2Model.definitions(Dstu2Model.RESOURCE_PREFIX).values()) {
+            Class<?> resource;
+            try {
+                resource = Class.forName(className);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Cannot locate resource class " + className, e);
+            }
+            try {
+                parser.parseResource(resource.asSubclass(IResource.class));
+                for (Class<?> nested : resource.getDeclaredClasses()) {
+                    if (BaseIdentifiableElement.class.isAssignableFrom(nested)) {
+                        parser.parseElement(nested.asSubclass(BaseIdentifiableElement.class));
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // Resources with fields the parser does not understand cannot be converted anyway, leave them to fail on use.
+                skipped.put(className, e.getMessage());
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Reflects over the hierarchy of a class, bypassing the snapshot and the cache.
+     */
+    static Map<String, FieldInfo> parseReflectively(Class<?> type) {
+        return parseAnnotatedFields(parseStack(type));
+    }
+
+    private static Stack<Class<?>> parseStack(Class<?> resource) {
         Stack<Class<?>> hierarchy = new Stack<>();
         Class<?> clazz = resource;
         do {
@@ -56,7 +140,7 @@ public class ResourceParser {
         return hierarchy;
     }
 
-    private Map<String, FieldInfo> parseAnnotatedFields(Stack<Class<?>> stack) {
+    private static Map<String, FieldInfo> parseAnnotatedFields(Stack<Class<?>> stack) {
         Map<String, FieldInfo> fieldNameToFieldInfo = new HashMap<>();
         while (!stack.isEmpty()) {
             Class<?> cls = stack.pop();
@@ -73,7 +157,10 @@ public class ResourceParser {
                 }
             }
 
-            for (Method i : cls.getMethods()) {
+            // getMethods() returns the methods in an order that depends on what the JVM loaded before
+            Method[] methods = cls.getMethods();
+            Arrays.sort(methods, METHOD_ORDER);
+            for (Method i : methods) {
                 String name = i.getName();
                 if (name.startsWith("get") || name.startsWith("set") || name.startsWith("add")) {
                     name = name.substring(3);
@@ -96,35 +183,75 @@ public class ResourceParser {
         return fieldNameToFieldInfo;
     }
 
-    public class FieldInfo {
+    public static class FieldInfo {
 
-        private final Child child;
         private FieldInfo parent;
-        private String lowercaseName;
-        private String origFieldName;
-        private Field field;
-        private List<Method> methods = new ArrayList<>();
+        private final String lowercaseName;
+        private final String origFieldName;
+        private final Class<?> declaringClass;
+        private final Class<?> type;
+        private final Class<?> typeArgument;
+        private final int min;
+        private final int max;
+        private final int order;
+        private final List<MethodInfo> accessors = new ArrayList<>();
+        // Resolved on first use when read from the snapshot
+        private volatile Field field;
+        private volatile List<Method> methods;
 
         public FieldInfo(String nameArg, Field field) {
+            this(nameArg, field, field.getAnnotation(Child.class));
+        }
+
+        private FieldInfo(String nameArg, Field field, Child child) {
+            this(nameArg, field.getDeclaringClass(), field.getType(), typeArgument(field.getGenericType()),
+                    child.name(), child.min(), child.max(), child.order());
+            this.field = field;
+            this.methods = new ArrayList<>();
+        }
+
+        FieldInfo(String nameArg, Class<?> declaringClass, Class<?> type, Class<?> typeArgument, String childName, int min, int max, int order) {
             if (!nameArg.startsWith("my")) {
                 throw new IllegalArgumentException("FHIR fields should start with my, was: " + nameArg);
             }
             this.origFieldName = nameArg.substring(2);
             this.lowercaseName = origFieldName.toLowerCase();
-            this.child = field.getAnnotation(Child.class);
-            if (!lowercaseName.equalsIgnoreCase(child.name())) {
-                throw new IllegalArgumentException("Name does no equal child lowercaseName " + lowercaseName + " " + child.name());
+            if (!lowercaseName.equalsIgnoreCase(childName)) {
+                throw new IllegalArgumentException("Name does no equal child lowercaseName " + lowercaseName + " " + childName);
             }
+            this.declaringClass = declaringClass;
+            this.type = type;
+            this.typeArgument = typeArgument;
+            this.min = min;
+            this.max = max;
+            this.order = order;
+        }
 
-            this.field = field;
+        private static Class<?> typeArgument(Type genericType) {
+            if (genericType instanceof ParameterizedType) {
+                Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+                if (argument instanceof Class) {
+                    return (Class<?>) argument;
+                }
+            }
+            return null;
         }
 
-        public void setParent(FieldInfo parent) {
+        void setParent(FieldInfo parent) {
             this.parent = parent;
         }
 
         public Field getField() {
-            return field;
+            Field resolved = field;
+            if (resolved == null) {
+                try {
+                    resolved = declaringClass.getDeclaredField("my" + origFieldName);
+                } catch (NoSuchFieldException e) {
+                    throw new IllegalStateException("Model snapshot does not match " + declaringClass.getName(), e);
+                }
+                field = resolved;
+            }
+            return resolved;
         }
 
         public String getOrigFieldName() {
@@ -139,8 +266,17 @@ public class ResourceParser {
             return lowercaseName;
         }
 
-        public void addMethod(Method method) {
+        public Class<?> getDeclaringClass() {
+            return declaringClass;
+        }
+
+        private void addMethod(Method method) {
             methods.add(method);
+            accessors.add(new MethodInfo(method));
+        }
+
+        void addAccessor(MethodInfo accessor) {
+            accessors.add(accessor);
         }
 
         @Override
@@ -148,21 +284,138 @@ public class ResourceParser {
             return "FieldInfo{" +
                     "parent=" + parent +
                     ", lowercaseName='" + lowercaseName + '\'' +
-                    ", field=" + field +
-                    ", methods=" + methods +
+                    ", type=" + type.getName() +
+                    ", accessors=" + accessors +
                     '}';
         }
 
         public Class<?> getType() {
-            return field.getType();
+            return type;
+        }
+
+        /**
+         * @return the first type argument of the field type, e.g. the element type of a list, or null when the
+         * field type is not parameterized.
+         */
+        public Class<?> getTypeArgument() {
+            return typeArgument;
         }
 
         public Object getGenericType() {
-            return field.getGenericType();
+            return getField().getGenericType();
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public int getOrder() {
+            return order;
+        }
+
+        /**
+         * @return the public get, set and add methods of the field, without reflecting over them.
+         */
+        public List<MethodInfo> getAccessors() {
+            return Collections.unmodifiableList(accessors);
         }
 
         public List<Method> getMethods() {
-            return methods;
+            List<Method> resolved = methods;
+            if (resolved == null) {
+                resolved = new ArrayList<>(accessors.size());
+                for (MethodInfo accessor : accessors) {
+                    resolved.add(accessor.resolve(declaringClass.getClassLoader()));
+                }
+                methods = resolved;
+            }
+            return Collections.unmodifiableList(resolved);
+        }
+    }
+
+    public static class MethodInfo {
+        private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+
+        static {
+            for (Class<?> primitive : Primitives.allPrimitiveTypes()) {
+                PRIMITIVES.put(primitive.getName(), primitive);
+            }
+        }
+
+        private final String declaringClass;
+        private final String name;
+        private final String returnType;
+        private final String[] parameterTypes;
+
+        MethodInfo(Method method) {
+            this.declaringClass = method.getDeclaringClass().getName();
+            this.name = method.getName();
+            this.returnType = method.getReturnType().getName();
+            Class<?>[] types = method.getParameterTypes();
+            this.parameterTypes = new String[types.length];
+            for (int i = 0; i < types.length; i++) {
+                parameterTypes[i] = types[i].getName();
+            }
+        }
+
+        MethodInfo(String declaringClass, String name, String returnType, String[] parameterTypes) {
+            this.declaringClass = declaringClass;
+            this.name = name;
+            this.returnType = returnType;
+            this.parameterTypes = parameterTypes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getParameterCount() {
+            return parameterTypes.length;
+        }
+
+        String getDeclaringClassName() {
+            return declaringClass;
+        }
+
+        String getReturnTypeName() {
+            return returnType;
+        }
+
+        String[] getParameterTypeNames() {
+            return parameterTypes;
+        }
+
+        Method resolve(ClassLoader loader) {
+            try {
+                Class<?>[] types = new Class<?>[parameterTypes.length];
+                for (int i = 0; i < types.length; i++) {
+                    types[i] = PRIMITIVES.containsKey(parameterTypes[i])
+                            ? PRIMITIVES.get(parameterTypes[i]) : Class.forName(parameterTypes[i], false, loader);
+                }
+                Class<?> type = Class.forName(declaringClass, false, loader);
+                Method method = type.getMethod(name, types);
+                if (!method.getReturnType().getName().equals(returnType)) {
+                    // A bridge method of a covariant override
+                    for (Method declared : type.getDeclaredMethods()) {
+                        if (declared.getName().equals(name) && declared.getReturnType().getName().equals(returnType)
+                                && Arrays.equals(declared.getParameterTypes(), types)) {
+                            return declared;
+                        }
+                    }
+                }
+                return method;
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                throw new IllegalStateException("Model snapshot does not match " + declaringClass + "." + name, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return returnType + " " + declaringClass + "." + name + "(" + Arrays.toString(parameterTypes) + ")";
         }
     }
 }
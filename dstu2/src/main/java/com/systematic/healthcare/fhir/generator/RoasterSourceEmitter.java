@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+
+import java.io.IOException;
+
+/**
+ * Renders the class with Roaster, which formats the complete compilation unit with the JDT formatter.
+ */
+public class RoasterSourceEmitter implements JavaSourceEmitter {
+    @Override
+    public void emit(JavaClassSource javaClass, Appendable out) throws IOException {
+        out.append(javaClass.toString());
+    }
+}
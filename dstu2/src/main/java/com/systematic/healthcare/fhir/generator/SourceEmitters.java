@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+/**
+ * Creates the {@link JavaSourceEmitter} configured by name in the CLI, the daemon and the Gradle plugin.
+ */
+public final class SourceEmitters {
+    public static final String STREAMING = "streaming";
+    public static final String ROASTER = "roaster";
+
+    private SourceEmitters() {
+    }
+
+    /**
+     * @throws IllegalArgumentException for names other than {@link #STREAMING} and {@link #ROASTER}.
+     */
+    public static JavaSourceEmitter forName(String name) {
+        switch (name) {
+            case STREAMING:
+                return new StreamingSourceEmitter();
+            case ROASTER:
+                return new RoasterSourceEmitter();
+            default:
+                throw new IllegalArgumentException("Unknown emitter '" + name + "', use " + STREAMING + " or " + ROASTER);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes generated classes to {@code <package>/<name>.java} in an {@link OutputSink}, reporting
+ * {@link GenerationPhase#RENDER} and {@link GenerationPhase#WRITE} to a listener. Each class is rendered into memory
+ * first, so the sink can compare it with the existing content and leave unchanged files untouched.
+ */
+public class SourceFileWriter {
+    private final JavaSourceEmitter emitter;
+    private final GenerationListener listener;
+    private final OutputSink sink;
+
+    public SourceFileWriter(JavaSourceEmitter emitter, GenerationListener listener, OutputSink sink) {
+        this.emitter = emitter;
+        this.listener = listener;
+        this.sink = sink;
+    }
+
+    /**
+     * Writes the class to {@link #getPath(JavaClassSource)} in the sink.
+     *
+     * @param parseEvent the parse event of the conversion that produced the class, used to attribute the events.
+     *                   May be null, in which case the class name is reported as the profile.
+     * @return true if the content was written, false if it was unchanged.
+     */
+    public boolean write(JavaClassSource javaClass, GenerationEvent parseEvent) throws IOException {
+        byte[] content = render(javaClass, parseEvent);
+        PhaseTimer timer = PhaseTimer.start();
+        boolean written = sink.write(getPath(javaClass), content);
+        completed(timer, javaClass, parseEvent, GenerationPhase.WRITE);
+        return written;
+    }
+    /**
+     * @return the path of the source file of the class below a source root, e.g. {@code com/example/Profile.java}.
+     */
+    public static String getPath(JavaClassSource javaClass) {
+        String name = javaClass.getName() + ".java";
+        return javaClass.isDefaultPackage() ? name : javaClass.getPackage().replace('.', '/') + '/' + name;
+    }
+
+    private byte[] render(JavaClassSource javaClass, GenerationEvent parseEvent) throws IOException {
+        PhaseTimer timer = PhaseTimer.start();
+        StringBuilder out = new StringBuilder(8192);
+        emitter.emit(javaClass, out);
+        byte[] content = out.toString().getBytes(StandardCharsets.UTF_8);
+        completed(timer, javaClass, parseEvent, GenerationPhase.RENDER);
+        return content;
+    }
+
+    private void completed(PhaseTimer timer, JavaClassSource javaClass, GenerationEvent parseEvent, GenerationPhase phase) {
+        String profile = parseEvent != null ? parseEvent.getProfile() : javaClass.getName();
+        int elementCount = parseEvent != null ? parseEvent.getElementCount() : 0;
+        listener.phaseCompleted(timer.stop(profile, phase, elementCount));
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.JavaDocTag;
+import org.jboss.forge.roaster.model.JavaType;
+import org.jboss.forge.roaster.model.ValuePair;
+import org.jboss.forge.roaster.model.Visibility;
+import org.jboss.forge.roaster.model.source.*;
+import org.jboss.forge.roaster.model.util.Types;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the class straight from the Roaster model without running the JDT formatter. The output is the same
+ * code as {@link RoasterSourceEmitter} produces, but long lines are not wrapped and method bodies keep the
+ * layout of the model.
+ * <p>
+ * Only the constructs the {@link Generator} uses are written. Classes with type parameters, throws clauses,
+ * annotated, final or varargs parameters, or enums with more than plain constants are rejected with an
+ * {@link IllegalArgumentException} rather than written without them; use {@link RoasterSourceEmitter} for those.
+ */
+public class StreamingSourceEmitter implements JavaSourceEmitter {
+    private static final String INDENT = "\t";
+
+    private final MemberListener memberListener;
+
+    public StreamingSourceEmitter() {
+        this(null);
+    }
+
+    StreamingSourceEmitter(MemberListener memberListener) {
+        this.memberListener = memberListener;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the class uses constructs this emitter does not write, before anything is
+     * written.
+     */
+    @Override
+    public void emit(JavaClassSource javaClass, Appendable out) throws IOException {
+        checkSupported(javaClass);
+        if (!javaClass.isDefaultPackage()) {
+            out.append("package ").append(javaClass.getPackage()).append(";\n\n");
+        }
+        for (Import anImport : javaClass.getImports()) {
+            out.append("import ");
+            if (anImport.isStatic()) {
+                out.append("static ");
+            }
+            out.append(anImport.getQualifiedName());
+            if (anImport.isWildcard()) {
+                out.append(".*");
+            }
+            out.append(";\n");
+        }
+        writeClass(javaClass, "", out);
+    }
+
+    private void writeClass(JavaClassSource javaClass, String indent, Appendable out) throws IOException {
+        writeAnnotations(javaClass.getAnnotations(), indent, out);
+        out.append(indent);
+        writeModifiers(javaClass.getVisibility(), javaClass.isStatic(), javaClass.isFinal(), out);
+        if (javaClass.isAbstract()) {
+            out.append("abstract ");
+        }
+        out.append("class ").append(javaClass.getName());
+        if (!Object.class.getName().equals(javaClass.getSuperType())) {
+            out.append(" extends ").append(typeName(javaClass, javaClass.getSuperType()));
+        }
+        List<String> interfaces = javaClass.getInterfaces();
+        for (int i = 0; i < interfaces.size(); i++) {
+            out.append(i == 0 ? " implements " : ", ").append(typeName(javaClass, interfaces.get(i)));
+        }
+        out.append(" {\n");
+        String memberIndent = indent + INDENT;
+        if (!javaClass.getFields().isEmpty()) {
+            out.append('\n');
+        }
+        for (FieldSource<JavaClassSource> field : javaClass.getFields()) {
+            memberStarted(field);
+            writeJavaDoc(field, memberIndent, out);
+            writeAnnotations(field.getAnnotations(), memberIndent, out);
+            out.append(memberIndent);
+            writeModifiers(field.getVisibility(), field.isStatic(), field.isFinal(), out);
+            out.append(field.getType().toString()).append(' ').append(field.getName());
+            if (field.getLiteralInitializer() != null) {
+                out.append(" = ").append(field.getLiteralInitializer());
+            }
+            out.append(";\n");
+        }
+        for (MethodSource<JavaClassSource> method : javaClass.getMethods()) {
+            out.append('\n');
+            memberStarted(method);
+            writeJavaDoc(method, memberIndent, out);
+            writeAnnotations(method.getAnnotations(), memberIndent, out);
+            out.append(memberIndent);
+            writeModifiers(method.getVisibility(), method.isStatic(), method.isFinal(), out);
+            if (!method.isConstructor()) {
+                out.append(method.getReturnType() != null ? method.getReturnType().toString() : "void").append(' ');
+            }
+            out.append(method.getName()).append('(');
+            List<ParameterSource<JavaClassSource>> parameters = method.getParameters();
+            for (int i = 0; i < parameters.size(); i++) {
+                ParameterSource<JavaClassSource> parameter = parameters.get(i);
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(parameter.getType().toString()).append(' ').append(parameter.getName());
+            }
+            out.append(") {\n");
+            writeBody(method.getBody(), memberIndent + INDENT, out);
+            out.append(memberIndent).append("}\n");
+        }
+        for (JavaSource<?> nested : javaClass.getNestedTypes()) {
+            out.append('\n');
+            memberStarted(nested);
+            if (nested instanceof JavaEnumSource) {
+                writeEnum((JavaEnumSource) nested, memberIndent, out);
+            } else if (nested instanceof JavaClassSource) {
+                writeClass((JavaClassSource) nested, memberIndent, out);
+            } else {
+                throw new IllegalArgumentException("Unsupported nested type: " + nested.getName());
+            }
+        }
+        out.append(indent).append("}\n");
+    }
+
+    private static void checkSupported(JavaClassSource javaClass) {
+        if (!javaClass.getTypeVariables().isEmpty()) {
+            throw unsupported("type parameters", javaClass.getName());
+        }
+        for (MethodSource<JavaClassSource> method : javaClass.getMethods()) {
+            if (!method.getTypeVariables().isEmpty()) {
+                throw unsupported("type parameters", method.getName());
+            }
+            if (!method.getThrownExceptions().isEmpty()) {
+                throw unsupported("throws clause", method.getName());
+            }
+            for (ParameterSource<JavaClassSource> parameter : method.getParameters()) {
+                if (!parameter.getAnnotations().isEmpty() || parameter.isFinal() || parameter.isVarArgs()) {
+                    throw unsupported("parameter modifiers", method.getName() + "(" + parameter + ")");
+                }
+            }
+        }
+        for (JavaSource<?> nested : javaClass.getNestedTypes()) {
+            if (nested instanceof JavaClassSource) {
+                checkSupported((JavaClassSource) nested);
+            } else if (nested instanceof JavaEnumSource) {
+                checkSupported((JavaEnumSource) nested);
+            } else {
+                throw unsupported("nested type", nested.getName());
+            }
+        }
+    }
+
+    private static void checkSupported(JavaEnumSource enumSource) {
+        if (!enumSource.getFields().isEmpty() || !enumSource.getMethods().isEmpty() || !enumSource.getInterfaces().isEmpty()
+                || !enumSource.getNestedTypes().isEmpty()) {
+            throw unsupported("enum members", enumSource.getName());
+        }
+        for (EnumConstantSource constant : enumSource.getEnumConstants()) {
+            // A plain constant prints as its name, arguments, bodies, annotations and javadoc would be lost
+            if (!constant.toString().trim().equals(constant.getName())) {
+                throw unsupported("enum constant", constant.toString());
+            }
+        }
+    }
+
+    private void memberStarted(AnnotationTargetSource<?, ?> member) {
+        if (memberListener != null) {
+            memberListener.memberStarted(member);
+        }
+    }
+
+    private void writeEnum(JavaEnumSource enumSource, String indent, Appendable out) throws IOException {
+        writeAnnotations(enumSource.getAnnotations(), indent, out);
+        out.append(indent);
+        writeModifiers(enumSource.getVisibility(), false, false, out);
+        out.append("enum ").append(enumSource.getName()).append(" {\n");
+        List<EnumConstantSource> constants = enumSource.getEnumConstants();
+        for (int i = 0; i < constants.size(); i++) {
+            out.append(indent).append(INDENT).append(constants.get(i).getName());
+            out.append(i < constants.size() - 1 ? ",\n" : "\n");
+        }
+        out.append(indent).append("}\n");
+    }
+
+    private void writeAnnotations(List<? extends AnnotationSource<?>> annotations, String indent, Appendable out) throws IOException {
+        for (AnnotationSource<?> annotation : annotations) {
+            out.append(indent).append('@').append(annotation.getName());
+            if (annotation.isSingleValue()) {
+                out.append('(').append(annotation.getLiteralValue()).append(')');
+            } else if (annotation.isNormal()) {
+                out.append('(');
+                List<ValuePair> values = annotation.getValues();
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        out.append(", ");
+                    }
+                    out.append(values.get(i).getName()).append(" = ").append(values.get(i).getLiteralValue());
+                }
+                out.append(')');
+            }
+            out.append('\n');
+        }
+    }
+
+    private void writeJavaDoc(JavaDocCapableSource<?> member, String indent, Appendable out) throws IOException {
+        // getJavaDoc() adds an empty doc comment to the model, so check first
+        if (!member.hasJavaDoc()) {
+            return;
+        }
+        JavaDocSource<?> javaDoc = member.getJavaDoc();
+        List<String> lines = new ArrayList<>();
+        if (javaDoc.getText() != null && !javaDoc.getText().trim().isEmpty()) {
+            lines.addAll(Arrays.asList(javaDoc.getText().trim().split("\n")));
+        }
+        for (JavaDocTag tag : javaDoc.getTags()) {
+            if (!lines.isEmpty()) {
+                lines.add("");
+            }
+            lines.add(tag.getName() + " " + tag.getValue());
+        }
+        out.append(indent).append("/**\n");
+        for (String line : lines) {
+            out.append(indent).append(" * ").append(line.trim()).append('\n');
+        }
+        out.append(indent).append(" */\n");
+    }
+
+    private void writeModifiers(Visibility visibility, boolean isStatic, boolean isFinal, Appendable out) throws IOException {
+        if (visibility != Visibility.PACKAGE_PRIVATE) {
+            out.append(visibility.scope()).append(' ');
+        }
+        if (isStatic) {
+            out.append("static ");
+        }
+        if (isFinal) {
+            out.append("final ");
+        }
+    }
+
+    /**
+     * Re-indents a method body from the two space indentation of the model to tabs.
+     */
+    private void writeBody(String body, String indent, Appendable out) throws IOException {
+        if (body == null) {
+            return;
+        }
+        for (String line : body.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int leading = 0;
+            while (leading < line.length() && line.charAt(leading) == ' ') {
+                leading++;
+            }
+            out.append(indent);
+            for (int i = 0; i < leading / 2; i++) {
+                out.append(INDENT);
+            }
+            out.append(trimmed).append('\n');
+        }
+    }
+
+    private static IllegalArgumentException unsupported(String construct, String member) {
+        return new IllegalArgumentException("Unsupported " + construct + " in " + member + ", use the roaster emitter");
+    }
+
+    private String typeName(JavaType<?> owner, String qualifiedName) {
+        if (owner instanceof Importer && ((Importer<?>) owner).hasImport(qualifiedName)) {
+            return Types.toSimpleName(qualifiedName);
+        }
+        return qualifiedName;
+    }
+
+    /**
+     * Told before the javadoc of each field, method and nested type is written, so callers holding the output can
+     * tell which member a position in the source belongs to.
+     */
+    interface MemberListener {
+        void memberStarted(AnnotationTargetSource<?, ?> member);
+    }
+}
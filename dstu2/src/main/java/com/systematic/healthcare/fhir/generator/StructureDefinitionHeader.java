@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * The top level values of a structure definition that can be read without parsing the whole document. Reading
+ * stops at the differential or snapshot.
+ */
+final class StructureDefinitionHeader {
+    private static final String STRUCTURE_DEFINITION = "StructureDefinition";
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    private String url;
+    private String kind;
+    private String constrainedType;
+
+    private StructureDefinitionHeader() {
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    String getKind() {
+        return kind;
+    }
+
+    String getConstrainedType() {
+        return constrainedType;
+    }
+
+    /**
+     * @return true for definitions of resource profiles, as opposed to extensions, datatypes and base resources.
+     */
+    boolean isResourceProfile() {
+        return "resource".equals(kind) && constrainedType != null && !constrainedType.isEmpty();
+    }
+
+    /**
+     * @return the header, or null if the document is not a structure definition.
+     */
+    static StructureDefinitionHeader read(InputStream in, boolean json) {
+        return json ? readJson(in) : readXml(in);
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        // Indexed directories may hold any xml file, which must not make the index read other files or urls
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static StructureDefinitionHeader readXml(InputStream in) {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                StructureDefinitionHeader header = null;
+                int depth = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamReader.START_ELEMENT) {
+                        depth++;
+                        String name = reader.getLocalName();
+                        if (depth == 1) {
+                            if (!STRUCTURE_DEFINITION.equals(name)) {
+                                return null;
+                            }
+                            header = new StructureDefinitionHeader();
+                        }
+                        if (depth == 2) {
+                            if (isBody(name)) {
+                                break;
+                            }
+                            header.set(name, reader.getAttributeValue(null, "value"));
+                        }
+                    } else if (event == XMLStreamReader.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+                return header;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            return null;
+        }
+    }
+
+    private static StructureDefinitionHeader readJson(InputStream in) {
+        try (JsonParser parser = Json.createParser(in)) {
+            StructureDefinitionHeader header = new StructureDefinitionHeader();
+            String resourceType = null;
+            int depth = 0;
+            String key = null;
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                switch (event) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        break;
+                    case KEY_NAME:
+                        key = depth == 1 ? parser.getString() : null;
+                        break;
+                    case VALUE_STRING:
+                        if ("resourceType".equals(key)) {
+                            resourceType = parser.getString();
+                        } else if (key != null) {
+                            header.set(key, parser.getString());
+                        }
+                        key = null;
+                        break;
+                    default:
+                        key = null;
+                }
+                if (key != null && isBody(key) && resourceType != null) {
+                    break;
+                }
+            }
+            return STRUCTURE_DEFINITION.equals(resourceType) ? header : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static boolean isBody(String name) {
+        return "differential".equals(name) || "snapshot".equals(name);
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "url":
+                url = value;
+                break;
+            case "kind":
+                kind = value;
+                break;
+            case "constrainedType":
+                constrainedType = value;
+                break;
+            default:
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the canonical url of every structure definition in a directory (optionally including sub directories) to
+ * its file. Only the header of each file is read, and files are only rescanned when their modification time
+ * changes. Lookups are map lookups. When a url is not found, the directory is only rescanned if a file was added,
+ * removed or renamed since the last scan, which shows in the modification time of the scanned directories; call
+ * {@link #refresh()} after changing the url of an existing file.
+ */
+public class StructureDefinitionIndex {
+    static final int MAXIMUM_SHARED = 64;
+    // File systems with a coarse timestamp resolution may not show changes made right around a scan
+    private static final long TIMESTAMP_RESOLUTION_MILLIS = 2000;
+    private static final LoadingCache<String, StructureDefinitionIndex> SHARED = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SHARED)
+            .build(new CacheLoader<String, StructureDefinitionIndex>() {
+                @Override
+                public StructureDefinitionIndex load(String directory) {
+                    return new StructureDefinitionIndex(new File(directory), false);
+                }
+            });
+
+    private final File directory;
+    private final boolean recursive;
+    private final Map<File, ScannedFile> scannedFiles = new HashMap<>();
+    private final Map<File, Long> scannedDirectories = new HashMap<>();
+    private long scanStarted;
+    private volatile Map<String, File> urlToFile = new HashMap<>();
+
+    public StructureDefinitionIndex(File directory, boolean recursive) {
+        this.directory = directory;
+        this.recursive = recursive;
+    }
+
+    /**
+     * @return a non recursive index of the directory, shared by all callers in the JVM. The indexes of the
+     * {@value #MAXIMUM_SHARED} most recently used directories are kept.
+     */
+    public static StructureDefinitionIndex forDirectory(File directory) {
+        return SHARED.getUnchecked(directory.getAbsolutePath());
+    }
+
+    /**
+     * @return the file defining the canonical url, or null if no file in the directory defines it.
+     */
+    public File find(String url) throws IOException {
+        File file = urlToFile.get(url);
+        if (file == null || !file.isFile()) {
+            refreshIfChanged();
+            file = urlToFile.get(url);
+        }
+        return file;
+    }
+
+    private synchronized void refreshIfChanged() throws IOException {
+        if (scannedDirectories.isEmpty() || directoriesChanged()) {
+            refresh();
+        }
+    }
+
+    private boolean directoriesChanged() {
+        for (Map.Entry<File, Long> scanned : scannedDirectories.entrySet()) {
+            long lastModified = scanned.getKey().lastModified();
+            if (lastModified != scanned.getValue() || lastModified >= scanStarted - TIMESTAMP_RESOLUTION_MILLIS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rescans new and modified files and forgets deleted files.
+     */
+    public synchronized void refresh() throws IOException {
+        long previousScanStarted = scanStarted;
+        scanStarted = System.currentTimeMillis();
+        scannedDirectories.clear();
+        Set<File> present = new HashSet<>();
+        collect(directory, present);
+        scannedFiles.keySet().retainAll(present);
+        for (File file : present) {
+            ScannedFile scanned = scannedFiles.get(file);
+            long lastModified = file.lastModified();
+            if (scanned == null || scanned.lastModified != lastModified
+                    || lastModified >= previousScanStarted - TIMESTAMP_RESOLUTION_MILLIS) {
+                scannedFiles.put(file, new ScannedFile(lastModified, readUrl(file)));
+            }
+        }
+        Map<String, File> index = new HashMap<>();
+        for (Map.Entry<File, ScannedFile> entry : scannedFiles.entrySet()) {
+            if (entry.getValue().url != null) {
+                index.put(entry.getValue().url, entry.getKey());
+            }
+        }
+        urlToFile = index;
+    }
+
+    private void collect(File dir, Set<File> files) {
+        // Before listing, so changes made while listing are seen by the next lookup
+        scannedDirectories.put(dir, dir.lastModified());
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                if (recursive) {
+                    collect(child, files);
+                }
+            } else if (child.getName().endsWith(".xml") || child.getName().endsWith(".json")) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * @return the canonical url of the structure definition in the file, or null if it is not a structure definition.
+     */
+    static String readUrl(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            StructureDefinitionHeader header = StructureDefinitionHeader.read(in, file.getName().endsWith(".json"));
+            return header != null ? header.getUrl() : null;
+        }
+    }
+
+    private static class ScannedFile {
+        private final long lastModified;
+        private final String url;
+
+        private ScannedFile(long lastModified, String url) {
+            this.lastModified = lastModified;
+            this.url = url;
+        }
+    }
+}
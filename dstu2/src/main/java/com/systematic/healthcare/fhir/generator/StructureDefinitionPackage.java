@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.resource.Bundle;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The structure definitions of an NPM style FHIR package (.tgz), a zip archive or a FHIR Bundle, indexed by
+ * canonical url. Archives are read once without extracting them to disk; each definition is kept in its
+ * serialized form and parsed when requested.
+ */
+public class StructureDefinitionPackage {
+    private final StructureDefinitionParser parser;
+    private final Map<String, Source> definitions = new LinkedHashMap<>();
+    private final Set<String> profileUrls = new LinkedHashSet<>();
+
+    private StructureDefinitionPackage(StructureDefinitionParser parser) {
+        this.parser = parser;
+    }
+
+    public static StructureDefinitionPackage load(File file) throws IOException {
+        return load(file, StructureDefinitionParser.getDefault());
+    }
+
+    /**
+     * Loads a .tgz/.tar.gz package, a .zip/.jar archive, or a Bundle in .xml or .json format.
+     */
+    public static StructureDefinitionPackage load(File file, StructureDefinitionParser parser) throws IOException {
+        StructureDefinitionPackage result = new StructureDefinitionPackage(parser);
+        String name = file.getName().toLowerCase();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            if (name.endsWith(".tgz") || name.endsWith(".tar.gz")) {
+                result.readArchive(new TarArchiveInputStream(new GZIPInputStream(in)));
+            } else if (name.endsWith(".zip") || name.endsWith(".jar")) {
+                result.readArchive(new ZipArchiveInputStream(in));
+            } else if (name.endsWith(".xml") || name.endsWith(".json")) {
+                result.readBundle(new InputStreamReader(in, StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("Unsupported package format: " + file);
+            }
+        }
+        return result;
+    }
+
+    private void readArchive(ArchiveInputStream archive) throws IOException {
+        ArchiveEntry entry;
+        while ((entry = archive.getNextEntry()) != null) {
+            String name = entry.getName();
+            boolean json = name.endsWith(".json");
+            if (entry.isDirectory() || !(json || name.endsWith(".xml"))) {
+                continue;
+            }
+            byte[] content = IOUtils.toByteArray(archive);
+            StructureDefinitionHeader header = StructureDefinitionHeader.read(new ByteArrayInputStream(content), json);
+            if (header != null && header.getUrl() != null) {
+                add(header.getUrl(), new SerializedSource(content), header.isResourceProfile());
+            }
+        }
+    }
+
+    private void readBundle(Reader reader) throws IOException {
+        Bundle bundle = parser.parseResource(Bundle.class, reader);
+        for (Bundle.Entry entry : bundle.getEntry()) {
+            if (entry.getResource() instanceof StructureDefinition) {
+                StructureDefinition definition = (StructureDefinition) entry.getResource();
+                boolean profile = "resource".equals(definition.getKind())
+                        && definition.getConstrainedType() != null && !definition.getConstrainedType().isEmpty();
+                add(definition.getUrl(), new ParsedSource(definition), profile);
+            }
+        }
+    }
+
+    private void add(String url, Source source, boolean profile) {
+        definitions.put(url, source);
+        if (profile) {
+            profileUrls.add(url);
+        }
+    }
+
+    public Set<String> getUrls() {
+        return Collections.unmodifiableSet(definitions.keySet());
+    }
+
+    /**
+     * @return the urls of the resource profiles in the package, i.e. not extensions, datatypes or base resources.
+     */
+    public Set<String> getProfileUrls() {
+        return Collections.unmodifiableSet(profileUrls);
+    }
+
+    /**
+     * @return the definition with the canonical url, or null if the package does not contain it.
+     */
+    public StructureDefinition getDefinition(String url) throws IOException {
+        Source source = definitions.get(url);
+        return source != null ? source.parse() : null;
+    }
+
+    /**
+     * @return a provider per resource profile in the package, resolving references within the package.
+     */
+    public List<StructureDefinitionProvider> getProfileProviders(String outPackage) {
+        List<StructureDefinitionProvider> providers = new ArrayList<>();
+        for (String url : profileUrls) {
+            providers.add(new PackageStructureDefinitionProvider(outPackage, this, url));
+        }
+        return providers;
+    }
+
+    private interface Source {
+        StructureDefinition parse() throws IOException;
+    }
+
+    private class SerializedSource implements Source {
+        private final byte[] content;
+
+        private SerializedSource(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public StructureDefinition parse() throws IOException {
+            return parser.parse(new ByteArrayInputStream(content));
+        }
+    }
+
+    private static class ParsedSource implements Source {
+        private final StructureDefinition definition;
+
+        private ParsedSource(StructureDefinition definition) {
+            this.definition = definition;
+        }
+
+        @Override
+        public StructureDefinition parse() {
+            return definition;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import ca.uhn.fhir.parser.IParser;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses structure definitions with a single {@link FhirContext}. Creating a context and scanning its model is
+ * expensive, so all providers share {@link #getDefault()} unless they are given a context of their own.
+ * Parsers are reused per thread. Both XML and JSON definitions are accepted.
+ */
+public class StructureDefinitionParser {
+    private static final int BYTE_ORDER_MARK = 0xFEFF;
+
+    private final FhirContext context;
+    private final ThreadLocal<IParser> xmlParser = new ThreadLocal<IParser>() {
+        @Override
+        protected IParser initialValue() {
+            return context.newXmlParser();
+        }
+    };
+    private final ThreadLocal<IParser> jsonParser = new ThreadLocal<IParser>() {
+        @Override
+        protected IParser initialValue() {
+            return context.newJsonParser();
+        }
+    };
+
+    public StructureDefinitionParser(FhirContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the parser backed by a lazily created DSTU2 context shared by the whole JVM.
+     */
+    public static StructureDefinitionParser getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public FhirContext getContext() {
+        return context;
+    }
+
+    public StructureDefinition parse(String content) throws IOException {
+        return parse(new StringReader(content));
+    }
+
+    /**
+     * Parses a UTF-8 encoded XML or JSON structure definition without reading it into memory first.
+     * The stream is not closed.
+     */
+    public StructureDefinition parse(InputStream content) throws IOException {
+        return parse(new InputStreamReader(content, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses an XML or JSON structure definition. The format is detected from the first non whitespace character.
+     * The reader is not closed.
+     */
+    public StructureDefinition parse(Reader content) throws IOException {
+        return parseResource(StructureDefinition.class, content);
+    }
+
+    /**
+     * Parses an XML or JSON resource of the given type. The reader is not closed.
+     */
+    public <T extends IBaseResource> T parseResource(Class<T> type, Reader content) throws IOException {
+        BufferedReader reader = content instanceof BufferedReader ? (BufferedReader) content : new BufferedReader(content);
+        IParser parser = isJson(reader) ? jsonParser.get() : xmlParser.get();
+        return parser.parseResource(type, reader);
+    }
+
+    /**
+     * Skips a byte order mark and leading whitespace, and peeks at the first character.
+     */
+    private static boolean isJson(BufferedReader reader) throws IOException {
+        int c;
+        do {
+            reader.mark(1);
+            c = reader.read();
+        } while (c == BYTE_ORDER_MARK || (c != -1 && Character.isWhitespace(c)));
+        reader.reset();
+        return c == '{';
+    }
+
+    private static class DefaultHolder {
+        private static final StructureDefinitionParser INSTANCE = new StructureDefinitionParser(FhirContext.forDstu2());
+    }
+}
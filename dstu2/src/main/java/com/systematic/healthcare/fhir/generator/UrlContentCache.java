@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent cache of downloaded documents. Content is stored by its SHA-256 hash and an index entry per url
+ * records the hash together with the ETag and Last-Modified headers of the response. Entries younger than the
+ * time to live are served without contacting the server, older entries are revalidated with a conditional request.
+ * In offline mode only cached content is served, regardless of its age.
+ */
+public class UrlContentCache {
+    public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.HOURS.toMillis(24);
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_CONTENT = "content";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_VALIDATED = "validated";
+
+    private final File contentDirectory;
+    private final File indexDirectory;
+    private final long timeToLiveMillis;
+    private final boolean offline;
+
+    public UrlContentCache(File directory) {
+        this(directory, DEFAULT_TIME_TO_LIVE, false);
+    }
+
+    public UrlContentCache(File directory, long timeToLiveMillis, boolean offline) {
+        this.contentDirectory = new File(directory, "content");
+        this.indexDirectory = new File(directory, "index");
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.offline = offline;
+    }
+
+    /**
+     * @return the cached file holding the current content of the url.
+     * @throws IOException if the content cannot be fetched, or if it is not cached while offline.
+     */
+    public File get(URL url) throws IOException {
+        File indexFile = indexFile(url);
+        Properties entry = readEntry(indexFile);
+        File content = entry != null ? new File(contentDirectory, entry.getProperty(KEY_CONTENT)) : null;
+        if (content != null && content.isFile()) {
+            if (offline || System.currentTimeMillis() - Long.parseLong(entry.getProperty(KEY_VALIDATED)) < timeToLiveMillis) {
+                return content;
+            }
+        } else if (offline) {
+            throw new IOException("Offline and no cached content for " + url);
+        } else {
+            entry = null;
+        }
+        return fetch(url, indexFile, entry);
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    private File fetch(URL url, File indexFile, Properties entry) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (entry != null && connection instanceof HttpURLConnection) {
+            if (entry.getProperty(KEY_ETAG) != null) {
+                connection.setRequestProperty("If-None-Match", entry.getProperty(KEY_ETAG));
+            }
+            if (entry.getProperty(KEY_LAST_MODIFIED) != null) {
+                connection.setRequestProperty("If-Modified-Since", entry.getProperty(KEY_LAST_MODIFIED));
+            }
+        }
+        try {
+            if (entry != null && connection instanceof HttpURLConnection
+                    && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                entry.setProperty(KEY_VALIDATED, Long.toString(System.currentTimeMillis()));
+                writeEntry(indexFile, entry);
+                return new File(contentDirectory, entry.getProperty(KEY_CONTENT));
+            }
+            byte[] bytes;
+            try (InputStream in = connection.getInputStream()) {
+                bytes = IOUtils.toByteArray(in);
+            }
+            String hash = Hashing.sha256().hashBytes(bytes).toString();
+            File content = new File(contentDirectory, hash);
+            if (!content.isFile()) {
+                DirectoryOutputSink.writeAtomically(content, bytes);
+            }
+
+            Properties newEntry = new Properties();
+            newEntry.setProperty(KEY_URL, url.toString());
+            newEntry.setProperty(KEY_CONTENT, hash);
+            newEntry.setProperty(KEY_VALIDATED, Long.toString(System.currentTimeMillis()));
+            if (connection.getHeaderField("ETag") != null) {
+                newEntry.setProperty(KEY_ETAG, connection.getHeaderField("ETag"));
+            }
+            if (connection.getHeaderField("Last-Modified") != null) {
+                newEntry.setProperty(KEY_LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+            }
+            writeEntry(indexFile, newEntry);
+            return content;
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+
+    private File indexFile(URL url) {
+        return new File(indexDirectory, Hashing.sha256().hashString(url.toString(), StandardCharsets.UTF_8) + ".properties");
+    }
+
+    private Properties readEntry(File indexFile) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        Properties entry = new Properties();
+        try (Reader in = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            entry.load(in);
+        }
+        if (entry.getProperty(KEY_CONTENT) == null || entry.getProperty(KEY_VALIDATED) == null) {
+            return null;
+        }
+        return entry;
+    }
+
+    private void writeEntry(File indexFile, Properties entry) throws IOException {
+        StringWriter out = new StringWriter();
+        entry.store(out, null);
+        DirectoryOutputSink.writeAtomically(indexFile, out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
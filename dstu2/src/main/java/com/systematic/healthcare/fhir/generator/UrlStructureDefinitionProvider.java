@@ -18,22 +18,61 @@ package com.systematic.healthcare.fhir.generator;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
 import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
-import ca.uhn.fhir.parser.IParser;
-import org.apache.commons.io.IOUtils;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class UrlStructureDefinitionProvider implements StructureDefinitionProvider {
-    private final FhirContext context;
+    private final StructureDefinitionParser parser;
     private final String outPackage;
     private final String structureUrl;
+    private final UrlContentCache contentCache;
+    private final ReferencePrefetcher prefetcher;
+    private final ConcurrentMap<String, Future<StructureDefinition>> prefetched = new ConcurrentHashMap<>();
 
     public UrlStructureDefinitionProvider(String outPackage, String structureUrl) {
+        this(outPackage, structureUrl, StructureDefinitionParser.getDefault());
+    }
+
+    public UrlStructureDefinitionProvider(String outPackage, String structureUrl, FhirContext context) {
+        this(outPackage, structureUrl, new StructureDefinitionParser(context));
+    }
+
+    public UrlStructureDefinitionProvider(String outPackage, String structureUrl, StructureDefinitionParser parser) {
+        this(outPackage, structureUrl, parser, null);
+    }
+
+    public UrlStructureDefinitionProvider(String outPackage, String structureUrl, UrlContentCache contentCache) {
+        this(outPackage, structureUrl, StructureDefinitionParser.getDefault(), contentCache);
+    }
+
+    /**
+     * @param contentCache the persistent cache documents are served from, or null to download on every request.
+     */
+    public UrlStructureDefinitionProvider(String outPackage, String structureUrl, StructureDefinitionParser parser, UrlContentCache contentCache) {
+        this(outPackage, structureUrl, parser, contentCache, null);
+    }
+
+    /**
+     * @param prefetcher fetches the extension definitions the profile references concurrently as soon as the profile
+     *                   is read, instead of one by one when the generator asks for them. May be null.
+     */
+    public UrlStructureDefinitionProvider(String outPackage, String structureUrl, StructureDefinitionParser parser,
+                                          UrlContentCache contentCache, ReferencePrefetcher prefetcher) {
         this.outPackage = outPackage;
         this.structureUrl = structureUrl;
-        context = FhirContext.forDstu2();
+        this.parser = parser;
+        this.contentCache = contentCache;
+        this.prefetcher = prefetcher;
     }
 
     public String getOutPackage() {
@@ -42,21 +81,68 @@ public class UrlStructureDefinitionProvider implements StructureDefinitionProvid
 
     @Override
     public StructureDefinition getDefinition() throws IOException {
-        IParser parser = context.newXmlParser();
-        return parser.parseResource(StructureDefinition.class, urlToContentString(new URL(structureUrl)));
+        StructureDefinition definition = parse(new URL(structureUrl));
+        if (prefetcher != null) {
+            prefetch(definition);
+        }
+        return definition;
     }
 
     @Override
     public StructureDefinition provideReferenceDefinition(ElementDefinitionDt element) throws IOException {
         String urlStr = element.getTypeFirstRep().getProfileFirstRep().getValue();
+        // Removed once served, so the provider does not keep the definitions after the conversion
+        Future<StructureDefinition> future = prefetched.remove(urlStr);
+        if (future != null) {
+            return await(future);
+        }
         URL url = new URL(urlStr);
-        IParser parser = context.newXmlParser();
-        return parser.parseResource(StructureDefinition.class, urlToContentString(url));
+        return parse(url);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(structureUrl);
+    }
+
+    private void prefetch(StructureDefinition definition) throws IOException {
+        for (ElementDefinitionDt element : definition.getDifferential().getElement()) {
+            if (GenerationPlanner.isResolvedExtension(definition, element)) {
+                String urlStr = element.getTypeFirstRep().getProfileFirstRep().getValue();
+                if (!prefetched.containsKey(urlStr)) {
+                    final URL url = new URL(urlStr);
+                    prefetched.put(urlStr, prefetcher.submit(url, new Callable<StructureDefinition>() {
+                        @Override
+                        public StructureDefinition call() throws IOException {
+                            return parse(url);
+                        }
+                    }));
+                }
+            }
+        }
+    }
+
+    private static StructureDefinition await(Future<StructureDefinition> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a prefetched definition");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
     }
 
-    private String urlToContentString(URL url) throws IOException {
-        try (InputStream in = url.openStream()) {
-            return new String(IOUtils.toByteArray(in), "UTF-8");
+    private StructureDefinition parse(URL url) throws IOException {
+        InputStream source = contentCache != null ? Files.newInputStream(contentCache.get(url).toPath()) : url.openStream();
+        try (InputStream in = new BufferedInputStream(source)) {
+            return parser.parse(in);
         }
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes files as entries of a zip or source jar. The archive holds the files written since the sink was opened:
+ * a new archive is written next to the existing one and renamed over it on {@link #close()}. Entries identical to
+ * the existing archive keep their timestamp, and when every entry is unchanged the existing archive is left alone.
+ */
+public class ZipOutputSink implements OutputSink {
+    private final File zipFile;
+    private final ZipFile existing;
+    private final Path tmp;
+    private final ZipOutputStream out;
+    private final Set<String> paths = new HashSet<>();
+    private int written;
+    private int skipped;
+
+    public ZipOutputSink(File zipFile) throws IOException {
+        this.zipFile = zipFile;
+        this.existing = zipFile.isFile() ? new ZipFile(zipFile) : null;
+        this.tmp = DirectoryOutputSink.createTempFile(zipFile);
+        this.out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+    }
+
+    @Override
+    public synchronized boolean write(String path, byte[] content) throws IOException {
+        if (!paths.add(path)) {
+            throw new IOException("Duplicate entry " + path + " in " + zipFile);
+        }
+        ZipEntry entry = new ZipEntry(path);
+        ZipEntry previous = existing != null ? existing.getEntry(path) : null;
+        boolean changed = previous == null || previous.getSize() != content.length || !Arrays.equals(read(previous), content);
+        if (!changed) {
+            entry.setTime(previous.getTime());
+        }
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+        if (changed) {
+            written++;
+        } else {
+            skipped++;
+        }
+        return changed;
+    }
+
+    @Override
+    public synchronized int getWrittenCount() {
+        return written;
+    }
+
+    @Override
+    public synchronized int getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Replaces the archive with the entries written, unless all of them are unchanged.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.close();
+            boolean unchanged = existing != null && written == 0 && existing.size() == paths.size();
+            if (existing != null) {
+                existing.close();
+            }
+            if (!unchanged) {
+                DirectoryOutputSink.moveAtomically(tmp, zipFile.toPath());
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private byte[] read(ZipEntry entry) throws IOException {
+        try (InputStream in = existing.getInputStream(entry)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
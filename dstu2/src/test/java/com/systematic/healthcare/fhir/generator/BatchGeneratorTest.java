@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BatchGeneratorTest {
+
+    private static final String PACKAGE = "com.systematic.healthcare.fhir.generator.generated";
+
+    @Test
+    public void failingProfileDoesNotAbortBatch() throws Exception {
+        File functioningCondition = new File(getClass().getResource("/FunctioningCondition.xml").toURI());
+        StructureDefinitionProvider ok = new FileStructureDefinitionProvider(PACKAGE, functioningCondition);
+        StructureDefinitionProvider missing = new FileStructureDefinitionProvider(PACKAGE, new File(functioningCondition.getParentFile(), "Missing.xml"));
+
+        BatchResult result;
+        try (BatchGenerator generator = new BatchGenerator(2)) {
+            result = generator.generate(Arrays.asList(ok, missing));
+        }
+
+        assertEquals(1, result.getGenerated().size());
+        JavaClassSource javaClass = result.getGenerated().get(ok);
+        assertEquals("FunctioningCondition", javaClass.getName());
+        assertTrue(result.hasFailures());
+        assertTrue(result.getFailures().containsKey(missing));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingStructureDefinitionProviderTest {
+
+    private static final String PACKAGE = "com.systematic.healthcare.fhir.generator.generated";
+
+    @Test
+    public void referencedDefinitionIsParsedOncePerCache() throws Exception {
+        File profile = new File(getClass().getResource("/ConditionWithExtension.xml").toURI());
+        CachingStructureDefinitionProvider.ReferenceCache cache = new CachingStructureDefinitionProvider.ReferenceCache(10);
+
+        Generator.generate(new CachingStructureDefinitionProvider(new FileStructureDefinitionProvider(PACKAGE, profile), cache));
+        Generator.generate(new CachingStructureDefinitionProvider(new FileStructureDefinitionProvider(PACKAGE, profile), cache));
+
+        assertEquals(1, cache.getStats().missCount());
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void missesAreNotCached() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final StructureDefinition extension = new StructureDefinition();
+        CachingStructureDefinitionProvider provider = new CachingStructureDefinitionProvider(new StructureDefinitionProvider() {
+            @Override
+            public String getOutPackage() {
+                return PACKAGE;
+            }
+
+            @Override
+            public StructureDefinition getDefinition() {
+                return null;
+            }
+
+            @Override
+            public StructureDefinition provideReferenceDefinition(ElementDefinitionDt element) {
+                // Not found on the first attempt
+                return reads.getAndIncrement() == 0 ? null : extension;
+            }
+        });
+        ElementDefinitionDt element = new ElementDefinitionDt();
+        element.addType().setCode("Extension").addProfile("http://example.org/extension");
+
+        assertNull(provider.provideReferenceDefinition(element));
+        assertSame(extension, provider.provideReferenceDefinition(element));
+        assertSame(extension, provider.provideReferenceDefinition(element));
+        assertEquals(2, reads.get());
+        // An element without a profile bypasses the cache
+        assertSame(extension, provider.provideReferenceDefinition(new ElementDefinitionDt()));
+        assertEquals(1, provider.getCache().size());
+    }
+}
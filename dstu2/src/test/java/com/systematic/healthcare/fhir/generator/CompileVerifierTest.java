@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompileVerifierTest {
+
+    private static final String PACKAGE = "com.systematic.healthcare.fhir.generator.generated";
+
+    @Test
+    public void generatedClassesCompile() throws Exception {
+        List<CompileDiagnostic> errors = new CompileVerifier().verify(Arrays.asList(
+                generate("/FunctioningCondition.xml"),
+                generate("/ConditionWithExtension.xml")));
+
+        assertEquals(Collections.<CompileDiagnostic>emptyList(), errors);
+    }
+
+    @Test
+    public void errorIsMappedToElementPath() throws Exception {
+        JavaClassSource javaClass = generate("/FunctioningCondition.xml");
+        javaClass.getMethod("getBodySite").setBody("return \"bodySite\";");
+
+        List<CompileDiagnostic> errors = new CompileVerifier().verify(Collections.singletonList(javaClass));
+
+        assertEquals(1, errors.size());
+        CompileDiagnostic error = errors.get(0);
+        assertEquals("functioning-condition", error.getProfile());
+        assertEquals("FunctioningCondition", error.getClassName());
+        assertEquals("Condition.bodySite", error.getElementPath());
+        assertTrue(error.getLineNumber() > 0);
+    }
+
+    private JavaClassSource generate(String resource) throws Exception {
+        return Generator.generate(new FileStructureDefinitionProvider(PACKAGE, new File(getClass().getResource(resource).toURI())));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class DirectoryOutputSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void unchangedContentIsNotRewritten() throws Exception {
+        DirectoryOutputSink sink = new DirectoryOutputSink(folder.getRoot());
+        File file = sink.getFile("a/b/Profile.java");
+
+        assertTrue(sink.write("a/b/Profile.java", bytes("class Profile {}")));
+        assertTrue(file.setLastModified(1000000000L));
+        assertFalse(sink.write("a/b/Profile.java", bytes("class Profile {}")));
+        assertEquals(1000000000L, file.lastModified());
+        assertTrue(sink.write("a/b/Profile.java", bytes("class Profile { }")));
+        assertEquals("class Profile { }", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+
+        assertEquals(2, sink.getWrittenCount());
+        assertEquals(1, sink.getSkippedCount());
+        assertArrayEquals(new String[]{"Profile.java"}, file.getParentFile().list());
+    }
+
+    @Test
+    public void permissionsAreKeptOnRewrite() throws Exception {
+        File file = folder.newFile("Profile.java");
+        assumeTrue(Files.getFileAttributeView(file.toPath(), PosixFileAttributeView.class) != null);
+        Set<PosixFilePermission> defaults = Files.getPosixFilePermissions(file.toPath());
+        assertTrue(file.delete());
+        DirectoryOutputSink sink = new DirectoryOutputSink(folder.getRoot());
+
+        assertTrue(sink.write("Profile.java", bytes("class Profile {}")));
+        assertEquals(defaults, Files.getPosixFilePermissions(file.toPath()));
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(file.toPath(), permissions);
+        assertTrue(sink.write("Profile.java", bytes("class Profile { }")));
+        assertEquals(permissions, Files.getPosixFilePermissions(file.toPath()));
+    }
+
+    @Test
+    public void generatedClassIsWrittenBelowItsPackage() throws Exception {
+        JavaClassSource javaClass = Generator.generate(new FileStructureDefinitionProvider(
+                "com.systematic.healthcare.fhir.generator.generated",
+                new File(getClass().getResource("/FunctioningCondition.xml").toURI())));
+        DirectoryOutputSink sink = new DirectoryOutputSink(folder.getRoot());
+        SourceFileWriter writer = new SourceFileWriter(new StreamingSourceEmitter(), GenerationListeners.NONE, sink);
+
+        assertTrue(writer.write(javaClass, null));
+        assertFalse(writer.write(javaClass, null));
+        assertTrue(new File(folder.getRoot(), "com/systematic/healthcare/fhir/generator/generated/FunctioningCondition.java").isFile());
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.api.IResourceBlock;
+import ca.uhn.fhir.model.dstu2.composite.AgeDt;
+import ca.uhn.fhir.model.dstu2.composite.CodeableConceptDt;
+import ca.uhn.fhir.model.dstu2.composite.ResourceReferenceDt;
+import ca.uhn.fhir.model.dstu2.resource.Condition;
+import ca.uhn.fhir.model.primitive.StringDt;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class Dstu2TypeRegistryTest {
+    private final Dstu2TypeRegistry registry = Dstu2TypeRegistry.getInstance();
+
+    @Test
+    public void resolvesEveryKindOfTypeCode() {
+        assertEquals(StringDt.class, registry.getType("string"));
+        assertEquals(Dstu2TypeRegistry.Kind.PRIMITIVE, registry.getKind("string"));
+        assertEquals(CodeableConceptDt.class, registry.getType("CodeableConcept"));
+        assertEquals(AgeDt.class, registry.getType("Age"));
+        assertEquals(ResourceReferenceDt.class, registry.getType("Reference"));
+        assertEquals(Condition.class, registry.getResourceType("Condition"));
+        assertEquals(IResourceBlock.class, registry.getType("BackboneElement"));
+    }
+
+    @Test
+    public void matchesThePackageLookupForDatatypes() throws Exception {
+        for (String code : registry.getCodes()) {
+            Dstu2TypeRegistry.Kind kind = registry.getKind(code);
+            if (kind == Dstu2TypeRegistry.Kind.PRIMITIVE) {
+                assertEquals(code, Class.forName("ca.uhn.fhir.model.primitive." + StringUtils.capitalize(code) + "Dt"), registry.getType(code));
+            } else if (kind == Dstu2TypeRegistry.Kind.COMPOSITE && !code.equals("Reference") && !code.equals("Extension")) {
+                assertEquals(code, Class.forName("ca.uhn.fhir.model.dstu2.composite." + code + "Dt"), registry.getType(code));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsUnknownCodes() {
+        try {
+            registry.getType("NoSuchType");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unknown DSTU2 type code 'NoSuchType'", e.getMessage());
+        }
+        try {
+            registry.getResourceType("CodeableConcept");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("not a resource"));
+        }
+    }
+}
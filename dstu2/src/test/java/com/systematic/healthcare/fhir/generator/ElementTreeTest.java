@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import ca.uhn.fhir.model.primitive.UriDt;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ElementTreeTest {
+
+    @Test
+    public void slicesNestBelowTheEnclosingSlice() throws Exception {
+        ElementTree tree = new ElementTree(parse("/ConditionWithNestedSlices.xml"));
+
+        ElementTree.Node identifier = tree.getRoot().getChild("identifier");
+        assertTrue(identifier.isSliced());
+        assertEquals(tree.getRoot(), identifier.getParent());
+        assertEquals(2, identifier.getSlices().size());
+        assertNull(identifier.getChild("type"));
+
+        ElementTree.Node local = identifier.getSlices().get(0);
+        assertEquals("local", local.getSliceName());
+        assertEquals(identifier, local.getSlicedNode());
+        assertEquals("http://www.systematic.com/fhir/identifier/local", ((UriDt) local.getChild("system").getElement().getFixed()).getValue());
+
+        ElementTree.Node type = local.getChild("type");
+        assertNull("not in the differential", type.getElement());
+        ElementTree.Node coding = type.getChild("coding");
+        assertEquals("Condition.identifier.type.coding", coding.getPath());
+        assertTrue(coding.isSliced());
+        assertEquals(2, coding.getSlices().size());
+        assertEquals("local secondary", coding.getSlices().get(1).getSliceName());
+        assertEquals("http://www.systematic.com/fhir/coding/secondary",
+                ((UriDt) coding.getSlices().get(1).getChild("system").getElement().getFixed()).getValue());
+
+        assertNotNull(tree.getRoot().getChild("code").getElement());
+    }
+
+    @Test
+    public void repeatedExtensionsAreSlicesOfTheExtensionNode() throws Exception {
+        StructureDefinition definition = parse("/ConditionWithExtension.xml");
+        definition.getDifferential().addElement().setPath("Condition.extension").setName("second");
+
+        ElementTree tree = new ElementTree(definition);
+
+        ElementTree.Node extension = tree.getRoot().getChild("extension");
+        assertFalse(extension.isSliced());
+        assertEquals("severityScore", extension.getElement().getName());
+        assertEquals(1, extension.getSlices().size());
+        List<ElementTree.Node> nodes = new ArrayList<>();
+        for (ElementDefinitionDt element : definition.getDifferential().getElement()) {
+            nodes.add(tree.getNode(element));
+        }
+        assertEquals(tree.getRoot(), nodes.get(0));
+        assertEquals(extension.getSlices().get(0), nodes.get(nodes.size() - 1));
+    }
+
+    private StructureDefinition parse(String resource) throws Exception {
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            return StructureDefinitionParser.getDefault().parse(in);
+        }
+    }
+}
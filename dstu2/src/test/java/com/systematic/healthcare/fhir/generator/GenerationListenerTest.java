@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GenerationListenerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reportsEveryPhaseOfAConversion() throws Exception {
+        final List<GenerationEvent> events = new ArrayList<>();
+        GenerationListener recorder = new GenerationListener() {
+            @Override
+            public void phaseCompleted(GenerationEvent event) {
+                events.add(event);
+            }
+        };
+        GenerationSummary summary = new GenerationSummary();
+        GenerationListener listener = GenerationListeners.compose(recorder, summary);
+        File file = new File(getClass().getResource("/ConditionWithExtension.xml").toURI());
+
+        JavaClassSource javaClass = Generator.generate(new FileStructureDefinitionProvider("generated", file), listener);
+        GenerationEvent parsed = events.get(0);
+        DirectoryOutputSink sink = new DirectoryOutputSink(folder.getRoot());
+        assertTrue(new SourceFileWriter(new StreamingSourceEmitter(), listener, sink).write(javaClass, parsed));
+
+        assertTrue(sink.getFile("generated/ConditionWithExtension.java").isFile());
+        EnumSet<GenerationPhase> phases = EnumSet.noneOf(GenerationPhase.class);
+        for (GenerationEvent event : events) {
+            phases.add(event.getPhase());
+            assertEquals("condition-with-extension", event.getProfile());
+            assertEquals(3, event.getElementCount());
+            assertTrue(event.getDurationNanos() >= 0);
+        }
+        assertEquals(EnumSet.allOf(GenerationPhase.class), phases);
+        assertEquals(GenerationPhase.PARSE, parsed.getPhase());
+        assertEquals(1, summary.getProfileCount());
+        assertTrue(summary.report().contains("EXTENSION_RESOLUTION"));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class GenerationManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void onlyChangedProfilesAndDependentsAreOutOfDate() throws Exception {
+        File profile = write("Profile.xml", "profile");
+        File extension = write("extension.xml", "extension");
+        File output = new File(folder.getRoot(), "Profile.java");
+        GenerationManifest manifest = new GenerationManifest();
+        assertEquals(Collections.singleton(profile), manifest.getOutOfDate(Collections.singleton(profile)));
+
+        GenerationManifest.Entry entry = new GenerationManifest.Entry(GenerationManifest.hash(profile));
+        entry.addOutput(output);
+        entry.addDependency(extension);
+        manifest.put(profile, entry);
+        File manifestFile = new File(folder.getRoot(), "build/manifest");
+        manifest.store(manifestFile);
+
+        GenerationManifest loaded = GenerationManifest.load(manifestFile);
+        assertTrue(loaded.getOutOfDate(Collections.singleton(profile)).isEmpty());
+        assertEquals(Collections.singleton(output), loaded.get(profile).getOutputs());
+        assertEquals(Collections.singleton(extension), loaded.getDependencyFiles());
+
+        write("extension.xml", "changed extension");
+        assertEquals(Collections.singleton(profile), loaded.getOutOfDate(Collections.singleton(profile)));
+    }
+
+    @Test
+    public void unreadableManifestIsEmpty() throws Exception {
+        File manifestFile = write("manifest", "garbage");
+        assertTrue(GenerationManifest.load(manifestFile).getProfiles().isEmpty());
+    }
+
+    private File write(String name, String content) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+        return file;
+    }
+}
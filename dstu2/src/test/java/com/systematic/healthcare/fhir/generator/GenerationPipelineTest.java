@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GenerationPipelineTest {
+
+    private static final String PACKAGE = "com.systematic.healthcare.fhir.generator.generated";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesProfilesAndRecordsFailures() throws Exception {
+        File out = folder.newFolder();
+        StructureDefinitionProvider functioning = new FileStructureDefinitionProvider(PACKAGE, resource("/FunctioningCondition.xml"));
+        StructureDefinitionProvider withExtension = new FileStructureDefinitionProvider(PACKAGE, resource("/ConditionWithExtension.xml"));
+        StructureDefinitionProvider missing = new FileStructureDefinitionProvider(PACKAGE, new File(folder.getRoot(), "Missing.xml"));
+
+        PipelineResult result = new GenerationPipeline(new StreamingSourceEmitter(), out)
+                .setGenerateThreads(2)
+                .run(Arrays.asList(functioning, missing, withExtension));
+
+        assertEquals(2, result.getWritten().size());
+        File packageDirectory = new File(out, PACKAGE.replace('.', File.separatorChar));
+        assertEquals(new File(packageDirectory, "FunctioningCondition.java"), result.getWritten().get(functioning));
+        assertTrue(new File(packageDirectory, "ConditionWithExtension.java").isFile());
+        assertTrue(result.getFailures().get(missing) instanceof IOException);
+    }
+
+    @Test
+    public void profilesInMemoryAreBounded() throws Exception {
+        final AtomicInteger inMemory = new AtomicInteger();
+        final AtomicInteger maximum = new AtomicInteger();
+        List<StructureDefinitionProvider> providers = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            providers.add(new RecordingStructureDefinitionProvider(new FileStructureDefinitionProvider(PACKAGE, resource("/FunctioningCondition.xml"))) {
+                @Override
+                public StructureDefinition getDefinition() throws IOException {
+                    int count = inMemory.incrementAndGet();
+                    synchronized (maximum) {
+                        maximum.set(Math.max(maximum.get(), count));
+                    }
+                    return super.getDefinition();
+                }
+            });
+        }
+        GenerationListener written = new GenerationListener() {
+            @Override
+            public void phaseCompleted(GenerationEvent event) {
+                if (event.getPhase() == GenerationPhase.WRITE) {
+                    inMemory.decrementAndGet();
+                }
+            }
+        };
+
+        PipelineResult result = new GenerationPipeline(new StreamingSourceEmitter(), folder.newFolder())
+                .setQueueCapacity(1)
+                .setGenerateThreads(1)
+                .setListener(written)
+                .run(providers);
+
+        assertFalse(result.hasFailures());
+        assertEquals(30, result.getWritten().size());
+        // one profile in each of the three stages and one in each of the two queues
+        assertTrue("maximum " + maximum.get(), maximum.get() <= 5);
+    }
+
+    private File resource(String name) throws Exception {
+        return new File(getClass().getResource(name).toURI());
+    }
+}
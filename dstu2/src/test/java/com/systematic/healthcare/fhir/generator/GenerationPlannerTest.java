@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GenerationPlannerTest {
+
+    private static final String PACKAGE = "com.systematic.healthcare.fhir.generator.generated";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sharedExtensionIsReadOnce() throws Exception {
+        final AtomicInteger referenceReads = new AtomicInteger();
+        File withExtension = resource("/ConditionWithExtension.xml");
+        StructureDefinitionProvider first = counting(new FileStructureDefinitionProvider(PACKAGE, withExtension), referenceReads);
+        StructureDefinitionProvider second = counting(new FileStructureDefinitionProvider(PACKAGE, withExtension), referenceReads);
+        StructureDefinitionProvider functioning = new FileStructureDefinitionProvider(PACKAGE, resource("/FunctioningCondition.xml"));
+
+        BatchResult result;
+        try (BatchGenerator generator = new BatchGenerator(2)) {
+            GenerationPlan plan = generator.plan(Arrays.asList(first, second, functioning));
+            assertFalse(plan.hasProblems());
+            assertEquals(Collections.singletonList(Arrays.asList(first, second, functioning)), plan.getWaves());
+            assertEquals(1, plan.getReferenceCount());
+            result = generator.generate(plan, GenerationListeners.NONE, new GeneratorOptions());
+        }
+
+        assertFalse(result.hasFailures());
+        assertEquals(3, result.getGenerated().size());
+        assertEquals("ConditionWithExtension", result.getGenerated().get(second).getName());
+        assertEquals(1, referenceReads.get());
+    }
+
+    @Test
+    public void missingReferenceIsReportedBeforeGenerating() throws Exception {
+        File profile = folder.newFile("ConditionWithExtension.xml");
+        Files.copy(resource("/ConditionWithExtension.xml").toPath(), profile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        StructureDefinitionProvider provider = new FileStructureDefinitionProvider(PACKAGE, profile);
+
+        GenerationPlan plan = plan(provider);
+
+        assertTrue(plan.getWaves().isEmpty());
+        Exception problem = plan.getProblems().get(provider);
+        assertTrue(problem instanceof IOException);
+        assertTrue(problem.getMessage(), problem.getMessage().contains("condition-severity-score"));
+    }
+
+    @Test
+    public void referenceCyclesAreWarningsOnly() throws Exception {
+        StructureDefinitionProvider a = inMemory(definition("http://example.org/a", "http://example.org/b"));
+        StructureDefinitionProvider b = inMemory(definition("http://example.org/b", "http://example.org/a"));
+        StructureDefinitionProvider c = inMemory(definition("http://example.org/c", "http://example.org/a"));
+        StructureDefinitionProvider d = inMemory(definition("http://example.org/d", null));
+
+        GenerationPlan plan = plan(a, b, c, d);
+
+        assertFalse(plan.hasProblems());
+        assertEquals(Collections.singletonList(Arrays.asList(a, b, c, d)), plan.getWaves());
+        assertEquals(3, plan.getWarnings().size());
+        assertTrue(plan.getWarnings().get(c).contains("http://example.org/a -> http://example.org/b -> http://example.org/a"));
+        BatchResult result;
+        try (BatchGenerator generator = new BatchGenerator(2)) {
+            result = generator.generate(plan, GenerationListeners.NONE, new GeneratorOptions());
+        }
+        assertFalse(result.getFailures().toString(), result.hasFailures());
+        assertEquals(4, result.getGenerated().size());
+    }
+
+    private GenerationPlan plan(StructureDefinitionProvider... providers) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            return new GenerationPlanner(executor).plan(Arrays.asList(providers));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static StructureDefinition definition(String url, String referencedProfile) {
+        StructureDefinition definition = new StructureDefinition();
+        definition.setUrl(url);
+        definition.setId(url.substring(url.lastIndexOf('/') + 1));
+        definition.setName("Condition" + definition.getId().getIdPart().toUpperCase());
+        definition.setConstrainedType("Condition");
+        ElementDefinitionDt patient = definition.getDifferential().addElement().setPath("Condition.patient").setMin(1).setMax("1");
+        if (referencedProfile != null) {
+            patient.addType().setCode("Reference").addProfile(referencedProfile);
+        }
+        return definition;
+    }
+
+    private static StructureDefinitionProvider inMemory(final StructureDefinition definition) {
+        return new StructureDefinitionProvider() {
+            @Override
+            public String getOutPackage() {
+                return PACKAGE;
+            }
+
+            @Override
+            public StructureDefinition getDefinition() {
+                return definition;
+            }
+
+            @Override
+            public StructureDefinition provideReferenceDefinition(ElementDefinitionDt element) {
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return definition.getUrl();
+            }
+        };
+    }
+
+    private static StructureDefinitionProvider counting(final StructureDefinitionProvider delegate, final AtomicInteger reads) {
+        return new RecordingStructureDefinitionProvider(delegate) {
+            @Override
+            public StructureDefinition provideReferenceDefinition(ElementDefinitionDt element) throws IOException {
+                reads.incrementAndGet();
+                return super.provideReferenceDefinition(element);
+            }
+        };
+    }
+
+    private File resource(String name) throws Exception {
+        return new File(getClass().getResource(name).toURI());
+    }
+}
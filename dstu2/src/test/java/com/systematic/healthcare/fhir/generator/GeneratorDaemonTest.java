@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GeneratorDaemonTest {
+
+    private static final String PACKAGE = "com.systematic.healthcare.fhir.generator.generated";
+
+    private static GeneratorDaemon daemon;
+    private static GeneratorClient client;
+
+    @ClassRule
+    public static TemporaryFolder tokenDirectory = new TemporaryFolder();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void startDaemon() throws Exception {
+        daemon = new GeneratorDaemon(0, 2, tokenDirectory.getRoot());
+        client = new GeneratorClient(daemon.start(), tokenDirectory.getRoot());
+    }
+
+    @AfterClass
+    public static void stopDaemon() throws Exception {
+        client.stop();
+        daemon.awaitClose();
+        assertFalse(client.isAvailable());
+    }
+
+    @Test
+    public void returnsSameSourceAsLocalGeneration() throws Exception {
+        File profile = resource("/FunctioningCondition.xml");
+        List<DaemonResult> results = client.generate(new DaemonRequest(PACKAGE, Collections.singletonList(profile)));
+
+        assertEquals(1, results.size());
+        DaemonResult result = results.get(0);
+        assertTrue(result.getFailure(), result.isSuccess());
+        assertEquals("FunctioningCondition", result.getClassName());
+        assertNull(result.getOutputFile());
+        StringWriter expected = new StringWriter();
+        new RoasterSourceEmitter().emit(Generator.generate(new FileStructureDefinitionProvider(PACKAGE, profile)), expected);
+        assertEquals(expected.toString(), result.getSource());
+        assertFalse(result.getEvents().isEmpty());
+    }
+
+    @Test
+    public void writesSourcesAndReportsReferences() throws Exception {
+        File outDirectory = folder.newFolder();
+        DaemonRequest request = new DaemonRequest(PACKAGE, Arrays.asList(resource("/ConditionWithExtension.xml"), resource("/FunctioningCondition.xml")))
+                .setOutDirectory(outDirectory);
+        List<DaemonResult> results = client.generate(request);
+
+        assertEquals(2, results.size());
+        DaemonResult withExtension = results.get(0);
+        assertTrue(withExtension.getFailure(), withExtension.isSuccess());
+        assertNull(withExtension.getSource());
+        File expected = new File(outDirectory, PACKAGE.replace('.', File.separatorChar) + File.separator + withExtension.getClassName() + ".java");
+        assertEquals(expected, withExtension.getOutputFile());
+        assertTrue(expected.isFile());
+        assertEquals(Collections.singletonList(resource("/condition-severity-score.xml")), withExtension.getReferencedFiles());
+        assertEquals("FunctioningCondition", results.get(1).getClassName());
+    }
+
+    @Test
+    public void reportsFailingProfile() throws Exception {
+        File missing = new File(resource("/FunctioningCondition.xml").getParentFile(), "Missing.xml");
+        List<DaemonResult> results = client.generate(new DaemonRequest(PACKAGE, Collections.singletonList(missing)));
+
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).isSuccess());
+        assertEquals(missing, results.get(0).getProfile());
+        assertNotNull(results.get(0).getFailure());
+    }
+
+    @Test
+    public void verifiedClassThatDoesNotCompileIsNotWritten() throws Exception {
+        // A class named after its resource clashes with the import of the resource
+        File profile = new File(folder.getRoot(), "Condition.xml");
+        String content = new String(Files.readAllBytes(resource("/FunctioningCondition.xml").toPath()), StandardCharsets.UTF_8)
+                .replace("<name value=\"FunctioningCondition\"", "<name value=\"Condition\"");
+        Files.write(profile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        File outDirectory = folder.newFolder();
+        DaemonRequest request = new DaemonRequest(PACKAGE, Collections.singletonList(profile))
+                .setOutDirectory(outDirectory).setVerify(true);
+        List<DaemonResult> results = client.generate(request);
+
+        assertFalse(results.get(0).isSuccess());
+        assertTrue(results.get(0).getFailure(), results.get(0).getFailure().startsWith("Generated class does not compile"));
+        assertArrayEquals(new String[0], outDirectory.list());
+        assertTrue(client.generate(request.setVerify(false)).get(0).isSuccess());
+    }
+
+    @Test
+    public void changedExtensionDefinitionIsReadAgain() throws Exception {
+        File profile = copy("/ConditionWithExtension.xml");
+        File extension = copy("/condition-severity-score.xml");
+        DaemonRequest request = new DaemonRequest(PACKAGE, Collections.singletonList(profile));
+        assertTrue(client.generate(request).get(0).getSource().contains("IntegerDt"));
+
+        String changed = new String(Files.readAllBytes(extension.toPath()), StandardCharsets.UTF_8).replace("\"integer\"", "\"decimal\"");
+        Files.write(extension.toPath(), changed.getBytes(StandardCharsets.UTF_8));
+        assertTrue(extension.setLastModified(extension.lastModified() + 2000));
+
+        String source = client.generate(request).get(0).getSource();
+        assertTrue(source, source.contains("DecimalDt"));
+        assertFalse(source, source.contains("IntegerDt"));
+    }
+
+    @Test
+    public void rejectsClientsWithoutToken() throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(DaemonProtocol.MAGIC);
+            out.write(new byte[DaemonProtocol.TOKEN_LENGTH]);
+            out.writeByte(DaemonProtocol.STOP);
+            out.flush();
+            new DataInputStream(socket.getInputStream()).readInt();
+            fail("Daemon answered a client without its token");
+        } catch (EOFException e) {
+            // Closed without an answer
+        }
+        assertTrue(client.isAvailable());
+        assertEquals(PosixFilePermissions.fromString("rw-------"),
+                Files.getPosixFilePermissions(GeneratorDaemon.getTokenFile(tokenDirectory.getRoot(), daemon.getPort()).toPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizedStringsAreRejected() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(Integer.MAX_VALUE);
+        DaemonProtocol.readString(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private File copy(String name) throws Exception {
+        File file = new File(folder.getRoot(), name.substring(1));
+        Files.copy(resource(name).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    private File resource(String name) throws Exception {
+        return new File(getClass().getResource(name).toURI());
+    }
+}
@@ -15,12 +15,130 @@
  */
 package com.systematic.healthcare.fhir.generator;
 
+import ca.uhn.fhir.model.dstu2.composite.IdentifierDt;
+import ca.uhn.fhir.model.dstu2.resource.Condition;
+import com.google.common.io.Resources;
+import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.jboss.forge.roaster.model.source.JavaEnumSource;
+import org.jboss.forge.roaster.model.source.JavaSource;
+import org.jboss.forge.roaster.model.source.MethodSource;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
 
 public class GeneratorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String PACKAGE = "com.systematic.healthcare.fhir.generator.generated";
 
     @Test
     public void doesItWork(){
         //It works....
     }
+
+    @Test
+    public void allocationFreeAccessorsCompile() throws Exception {
+        GeneratorOptions options = new GeneratorOptions().setAllocationFreeAccessors(true);
+        JavaClassSource functioningCondition = generate("/FunctioningCondition.xml", options);
+        JavaClassSource withExtension = generate("/ConditionWithExtension.xml", options);
+
+        String isEmpty = withExtension.getMethod("isEmpty").getBody();
+        assertTrue(isEmpty, isEmpty.contains("ElementUtil.isEmpty(myBodySite)"));
+        assertTrue(isEmpty, isEmpty.contains("mySeverityScore == null || mySeverityScore.isEmpty()"));
+        MethodSource<JavaClassSource> getIdentifier = functioningCondition.getMethod("getIdentifier");
+        assertTrue(getIdentifier.getBody().contains("Collections.emptyList()"));
+        assertTrue(getIdentifier.getJavaDoc().getText().contains("{@code addIdentifier}"));
+        assertTrue(functioningCondition.getMethod("addIdentifier").getJavaDoc().getText().startsWith("Creates the list"));
+        assertTrue(new CompileVerifier().verify(Arrays.asList(functioningCondition, withExtension)).isEmpty());
+    }
+
+    @Test
+    public void allocationFreeClassesAcceptInheritedAdders() throws Exception {
+        JavaClassSource javaClass = generate("/FunctioningCondition.xml", new GeneratorOptions().setAllocationFreeAccessors(true));
+        File source = new File(folder.getRoot(), SourceFileWriter.getPath(javaClass));
+        assertTrue(source.getParentFile().mkdirs());
+        try (Writer out = Files.newBufferedWriter(source.toPath(), StandardCharsets.UTF_8)) {
+            new RoasterSourceEmitter().emit(javaClass, out);
+        }
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-proc:none", "-cp",
+                System.getProperty("java.class.path"), source.getPath()));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{folder.getRoot().toURI().toURL()}, getClass().getClassLoader())) {
+            Condition condition = loader.loadClass(PACKAGE + "." + javaClass.getName()).asSubclass(Condition.class)
+                    .getConstructor().newInstance();
+            assertTrue(condition.getIdentifier().isEmpty());
+            IdentifierDt identifier = new IdentifierDt("urn:system", "1");
+            assertSame(condition, condition.addIdentifier(identifier));
+            assertEquals(Collections.singletonList(identifier), condition.getIdentifier());
+            condition.addEvidence(new Condition.Evidence());
+            assertEquals(1, condition.getEvidence().size());
+        }
+    }
+
+    @Test
+    public void nestedSlicesGetAnEnumPerSlicing() throws Exception {
+        JavaClassSource javaClass = generate("/ConditionWithNestedSlices.xml", new GeneratorOptions());
+
+        assertEquals(2, javaClass.getFields().size());
+        assertNotNull(javaClass.getField("myIdentifier"));
+        assertNotNull(javaClass.getField("myCode"));
+        assertEquals(Arrays.asList("IdentifierSlicesType", "LocalCodingSlicesType", "NationalCodingSlicesType"), nestedTypeNames(javaClass));
+        JavaEnumSource national = (JavaEnumSource) javaClass.getNestedType("NationalCodingSlicesType");
+        assertEquals("NATIONALPRIMARY", national.getEnumConstants().get(0).getName());
+        assertTrue(new CompileVerifier().verify(Collections.singletonList(javaClass)).isEmpty());
+    }
+
+    /**
+     * The baseline resource was generated by the converter before the element tree. Accessors are compared without
+     * their order, which changed with the sorted reflection.
+     */
+    @Test
+    public void slicedExtensionsMatchBaseline() throws Exception {
+        String baseline = Resources.toString(getClass().getResource("/ConditionWithSlicedExtensions.baseline.txt"), StandardCharsets.UTF_8);
+        JavaClassSource expected = Roaster.parse(JavaClassSource.class, baseline);
+        JavaClassSource javaClass = Roaster.parse(JavaClassSource.class, generate("/ConditionWithSlicedExtensions.xml", new GeneratorOptions()).toString());
+
+        assertEquals(nestedTypeNames(expected), nestedTypeNames(javaClass));
+        assertEquals(expected.getFields().toString(), javaClass.getFields().toString());
+        assertEquals(members(expected), members(javaClass));
+    }
+
+    private static Set<String> members(JavaClassSource javaClass) {
+        Set<String> members = new TreeSet<>();
+        for (MethodSource<JavaClassSource> method : javaClass.getMethods()) {
+            members.add(method.toString());
+        }
+        return members;
+    }
+
+    private static List<String> nestedTypeNames(JavaClassSource javaClass) {
+        List<String> names = new ArrayList<>();
+        for (JavaSource<?> nested : javaClass.getNestedTypes()) {
+            names.add(nested.getName());
+        }
+        return names;
+    }
+
+    private JavaClassSource generate(String resource, GeneratorOptions options) throws Exception {
+        File file = new File(getClass().getResource(resource).toURI());
+        return Generator.generate(new FileStructureDefinitionProvider(PACKAGE, file), GenerationListeners.NONE, options);
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.resource.Observation;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ModelSnapshotTest {
+
+    @Test
+    public void snapshotMatchesReflection() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelSnapshot.write(ModelSnapshot.modelClasses(), out);
+        ModelSnapshot snapshot = ModelSnapshot.read(out.toByteArray());
+
+        assertTrue(snapshot.size() > 100);
+        for (Class<?> type : ModelSnapshot.modelClasses()) {
+            Map<String, ResourceParser.FieldInfo> reflected;
+            try {
+                reflected = ResourceParser.parseReflectively(type);
+            } catch (IllegalArgumentException e) {
+                assertNull(type.getName(), snapshot.getFieldInfo(type));
+                continue;
+            }
+            Map<String, ResourceParser.FieldInfo> read = snapshot.getFieldInfo(type);
+            assertNotNull(type.getName(), read);
+            assertEquals(type.getName(), reflected.keySet(), read.keySet());
+            for (String name : reflected.keySet()) {
+                assertSameField(type.getName() + "." + name, reflected.get(name), read.get(name));
+            }
+        }
+    }
+
+    @Test
+    public void classesMissingFromTheSnapshotAreNotRead() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelSnapshot.write(Collections.<Class<?>>singleton(Observation.class), out);
+        ModelSnapshot snapshot = ModelSnapshot.read(out.toByteArray());
+
+        assertNotNull(snapshot.getFieldInfo(Observation.class));
+        assertNull(snapshot.getFieldInfo(Patient.class));
+    }
+
+    @Test
+    public void generatedSourcesMatchWithAndWithoutSnapshot() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelSnapshot.write(ModelSnapshot.modelClasses(), out);
+        ResourceParser snapshot = new ResourceParser(ModelSnapshot.read(out.toByteArray()));
+        out.reset();
+        ModelSnapshot.write(Collections.<Class<?>>emptySet(), out);
+        ResourceParser reflection = new ResourceParser(ModelSnapshot.read(out.toByteArray()));
+
+        for (String profile : new String[]{"/FunctioningCondition.xml", "/ConditionWithExtension.xml", "/ConditionWithNestedSlices.xml"}) {
+            for (GeneratorOptions options : Arrays.asList(new GeneratorOptions(), new GeneratorOptions().setAllocationFreeAccessors(true))) {
+                assertEquals(profile, generate(profile, options, reflection), generate(profile, options, snapshot));
+            }
+        }
+    }
+
+    private String generate(String profile, GeneratorOptions options, ResourceParser resourceParser) throws Exception {
+        StructureDefinitionProvider provider = new FileStructureDefinitionProvider("generated", new File(getClass().getResource(profile).toURI()));
+        StringBuilder source = new StringBuilder();
+        new RoasterSourceEmitter().emit(Generator.generate(provider, GenerationListeners.NONE, options, resourceParser), source);
+        return source.toString();
+    }
+
+    private static void assertSameField(String message, ResourceParser.FieldInfo expected, ResourceParser.FieldInfo actual) {
+        for (; expected != null; expected = expected.getParent(), actual = actual.getParent()) {
+            assertNotNull(message, actual);
+            assertEquals(message, expected.getField(), actual.getField());
+            assertEquals(message, expected.getType(), actual.getType());
+            assertEquals(message, expected.getTypeArgument(), actual.getTypeArgument());
+            assertEquals(message, expected.getMin(), actual.getMin());
+            assertEquals(message, expected.getMax(), actual.getMax());
+            assertEquals(message, expected.getOrder(), actual.getOrder());
+            assertEquals(message, expected.getMethods(), actual.getMethods());
+        }
+        assertNull(message, actual);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProfileRegistryGeneratorTest {
+
+    private static final String PACKAGE = "com.systematic.healthcare.fhir.generator.generated";
+
+    @Test
+    public void listsProfilesWithExtensions() throws Exception {
+        List<JavaClassSource> profiles = new ArrayList<>(Arrays.asList(generate("/FunctioningCondition.xml"), generate("/ConditionWithExtension.xml")));
+
+        JavaClassSource registry = ProfileRegistryGenerator.generate(PACKAGE, profiles);
+
+        assertEquals(PACKAGE + "." + ProfileRegistryGenerator.DEFAULT_CLASS_NAME, registry.getQualifiedName());
+        String resourceTypes = registry.getMethod("createResourceTypes").getBody();
+        assertTrue(resourceTypes, resourceTypes.contains("FunctioningCondition.class"));
+        assertTrue(resourceTypes, resourceTypes.contains("ConditionWithExtension.class"));
+        String extensionUrls = registry.getMethod("createExtensionUrls").getBody();
+        assertTrue(extensionUrls, extensionUrls.contains("\"http://www.systematic.com/fhir/StructureDefinition/condition-severity-score\""));
+        profiles.add(registry);
+        assertTrue(new CompileVerifier().verify(profiles).isEmpty());
+    }
+
+    private JavaClassSource generate(String resource) throws Exception {
+        return Generator.generate(new FileStructureDefinitionProvider(PACKAGE, new File(getClass().getResource(resource).toURI())));
+    }
+}
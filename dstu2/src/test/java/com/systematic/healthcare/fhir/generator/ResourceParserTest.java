@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.dstu2.resource.Condition;
+import ca.uhn.fhir.model.dstu2.resource.Observation;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResourceParserTest {
+
+    @Test
+    public void fieldInfoIsParsedOncePerClass() {
+        Map<String, ResourceParser.FieldInfo> first = new ResourceParser().parseResource(Observation.class);
+        Map<String, ResourceParser.FieldInfo> second = new ResourceParser().parseResource(Observation.class);
+        assertSame(first, second);
+        assertTrue(first.containsKey("subject"));
+        assertFalse(first.get("subject").getMethods().isEmpty());
+    }
+
+    @Test
+    public void warmUpParsesAllResources() {
+        Map<String, String> skipped = ResourceParser.warmUp();
+        for (Class<? extends IResource> resource : Arrays.asList(Observation.class, Patient.class, Condition.class)) {
+            assertFalse(skipped.containsKey(resource.getName()));
+            Map<String, ResourceParser.FieldInfo> fieldInfo = new ResourceParser().parseResource(resource);
+            assertFalse(fieldInfo.isEmpty());
+            assertSame(fieldInfo, new ResourceParser().parseResource(resource));
+        }
+        assertTrue(skipped.size() < Dstu2Model.definitions(Dstu2Model.RESOURCE_PREFIX).size());
+    }
+}
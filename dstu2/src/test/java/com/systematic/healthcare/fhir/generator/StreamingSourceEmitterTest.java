@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.resource.Condition;
+import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.source.FieldSource;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.jboss.forge.roaster.model.source.JavaEnumSource;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StreamingSourceEmitterTest {
+
+    @Test
+    public void generatedProfilesMatchRoaster() throws Exception {
+        for (String profile : new String[]{"/FunctioningCondition.xml", "/ConditionWithExtension.xml"}) {
+            File file = new File(getClass().getResource(profile).toURI());
+            assertEquivalent(Generator.generate(new FileStructureDefinitionProvider("generated", file)));
+        }
+    }
+
+    @Test
+    public void javaDocAndNestedEnumsMatchRoaster() throws Exception {
+        JavaClassSource javaClass = Roaster.create(JavaClassSource.class);
+        javaClass.setPackage("generated").setName("Sliced").extendSuperType(Condition.class);
+        FieldSource<JavaClassSource> field = javaClass.addField().setName("myScore").setPrivate().setType("Score");
+        field.getJavaDoc().addTagValue("TODO:", "Replace Score.class");
+        field.getJavaDoc().addTagValue("@deprecated", "Replace Score.class");
+        JavaEnumSource enumSource = Roaster.create(JavaEnumSource.class).setName("CodeType");
+        enumSource.addEnumConstant().setName("FIRST");
+        enumSource.addEnumConstant().setName("SECOND");
+        javaClass.addNestedType(enumSource);
+        assertEquivalent(javaClass);
+    }
+
+    @Test
+    public void unsupportedConstructsAreRejectedBeforeWriting() throws Exception {
+        JavaClassSource throwing = Roaster.create(JavaClassSource.class).setName("Throwing");
+        throwing.addMethod().setName("read").setPublic().setReturnTypeVoid().setBody("").addThrows(IOException.class);
+        JavaClassSource finalParameter = Roaster.create(JavaClassSource.class).setName("FinalParameter");
+        finalParameter.addMethod().setName("set").setPublic().setReturnTypeVoid().setBody("").addParameter(String.class, "theValue").setFinal(true);
+        JavaClassSource annotatedParameter = Roaster.create(JavaClassSource.class).setName("AnnotatedParameter");
+        annotatedParameter.addMethod().setName("set").setPublic().setReturnTypeVoid().setBody("").addParameter(String.class, "theValue").addAnnotation(Deprecated.class);
+        JavaClassSource constantArguments = Roaster.create(JavaClassSource.class).setName("ConstantArguments");
+        JavaEnumSource enumSource = Roaster.create(JavaEnumSource.class).setName("CodeType");
+        enumSource.addEnumConstant().setName("FIRST").setConstructorArguments("1");
+        constantArguments.addNestedType(enumSource);
+
+        for (JavaClassSource javaClass : Arrays.asList(throwing, finalParameter, annotatedParameter, constantArguments)) {
+            StringBuilder out = new StringBuilder();
+            try {
+                new StreamingSourceEmitter().emit(javaClass, out);
+                fail(javaClass.getName() + " was written without its unsupported construct");
+            } catch (IllegalArgumentException e) {
+                assertEquals(javaClass.getName(), "", out.toString());
+            }
+        }
+    }
+
+    private void assertEquivalent(JavaClassSource javaClass) throws Exception {
+        StringBuilder streamed = new StringBuilder();
+        new StreamingSourceEmitter().emit(javaClass, streamed);
+        StringBuilder roaster = new StringBuilder();
+        new RoasterSourceEmitter().emit(javaClass, roaster);
+        assertEquals(roaster.toString().replaceAll("\\s", ""), streamed.toString().replaceAll("\\s", ""));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.*;
+
+public class StructureDefinitionIndexTest {
+
+    private static final String SEVERITY_URL = "http://www.systematic.com/fhir/StructureDefinition/condition-severity-score";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void filesAreFoundByCanonicalUrl() throws Exception {
+        File nested = copy("/condition-severity-score.xml", "extensions/severity.xml");
+        File profile = copy("/FunctioningCondition.xml", "profile.xml");
+
+        assertNull(new StructureDefinitionIndex(folder.getRoot(), false).find(SEVERITY_URL));
+        StructureDefinitionIndex index = new StructureDefinitionIndex(folder.getRoot(), true);
+        assertEquals(nested, index.find(SEVERITY_URL));
+        assertEquals(profile, index.find("http://www.systematic.com/fhir/StructureDefinition/FunctioningCondition"));
+    }
+
+    @Test
+    public void jsonFilesAreIndexed() throws Exception {
+        StructureDefinitionParser parser = StructureDefinitionParser.getDefault();
+        String json = parser.getContext().newJsonParser().encodeResourceToString(
+                parser.parse(getClass().getResourceAsStream("/condition-severity-score.xml")));
+        File file = new File(folder.getRoot(), "severity.json");
+        Files.write(file.toPath(), json.getBytes("UTF-8"));
+
+        assertEquals(file, new StructureDefinitionIndex(folder.getRoot(), false).find(SEVERITY_URL));
+    }
+
+    @Test
+    public void externalDtdIsNotRead() throws Exception {
+        File dtd = new File(folder.getRoot(), "external.dtd");
+        Files.write(dtd.toPath(), ("<!ENTITY url \"" + SEVERITY_URL + "\">").getBytes("UTF-8"));
+        File file = new File(folder.getRoot(), "external.xml");
+        String content = "<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE StructureDefinition SYSTEM \"" + dtd.toURI() + "\">\n"
+                + "<StructureDefinition xmlns=\"http://hl7.org/fhir\"><url value=\"&url;\"/></StructureDefinition>";
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+
+        assertNotEquals(SEVERITY_URL, StructureDefinitionIndex.readUrl(file));
+        assertNull(new StructureDefinitionIndex(folder.getRoot(), false).find(SEVERITY_URL));
+    }
+
+    @Test
+    public void missesOnlyRescanChangedDirectories() throws Exception {
+        File severity = copy("/condition-severity-score.xml", "severity.xml");
+        byte[] content = Files.readAllBytes(severity.toPath());
+        Files.write(severity.toPath(), new String(content, "UTF-8").replace(SEVERITY_URL, "http://example.org/other").getBytes("UTF-8"));
+        assertTrue(folder.getRoot().setLastModified(System.currentTimeMillis() - 60000));
+        StructureDefinitionIndex index = new StructureDefinitionIndex(folder.getRoot(), false);
+        assertNull(index.find(SEVERITY_URL));
+
+        // Changing the url of an existing file does not touch the directory, so the miss is not rescanned
+        Files.write(severity.toPath(), content);
+        assertNull(index.find(SEVERITY_URL));
+        index.refresh();
+        assertEquals(severity, index.find(SEVERITY_URL));
+
+        // Adding a file does
+        File added = copy("/FunctioningCondition.xml", "profile.xml");
+        assertEquals(added, index.find("http://www.systematic.com/fhir/StructureDefinition/FunctioningCondition"));
+    }
+
+    @Test
+    public void renamedExtensionIsResolved() throws Exception {
+        copy("/condition-severity-score.xml", "severity.xml");
+        File profile = copy("/ConditionWithExtension.xml", "ConditionWithExtension.xml");
+
+        JavaClassSource javaClass = Generator.generate(new FileStructureDefinitionProvider("generated", profile));
+        assertEquals("IntegerDt", javaClass.getField("mySeverityScore").getType().getName());
+    }
+
+    private File copy(String resource, String target) throws Exception {
+        File file = new File(folder.getRoot(), target);
+        file.getParentFile().mkdirs();
+        Files.copy(getClass().getResourceAsStream(resource), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.resource.Bundle;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class StructureDefinitionPackageTest {
+
+    private static final String PROFILE_URL = "http://www.systematic.com/fhir/StructureDefinition/ConditionWithExtension";
+    private static final String EXTENSION_URL = "http://www.systematic.com/fhir/StructureDefinition/condition-severity-score";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void npmPackage() throws Exception {
+        File file = folder.newFile("package.tgz");
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(file)))) {
+            addTarEntry(out, "package/package.json", "{\"name\": \"test.package\"}".getBytes("UTF-8"));
+            addTarEntry(out, "package/StructureDefinition-ConditionWithExtension.xml", resource("/ConditionWithExtension.xml"));
+            addTarEntry(out, "package/StructureDefinition-condition-severity-score.xml", resource("/condition-severity-score.xml"));
+        }
+        assertGeneratesProfile(StructureDefinitionPackage.load(file));
+    }
+
+    @Test
+    public void zipArchive() throws Exception {
+        File file = folder.newFile("definitions.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry("profiles/ConditionWithExtension.xml"));
+            out.write(resource("/ConditionWithExtension.xml"));
+            out.putNextEntry(new ZipEntry("extensions/severity.xml"));
+            out.write(resource("/condition-severity-score.xml"));
+        }
+        assertGeneratesProfile(StructureDefinitionPackage.load(file));
+    }
+
+    @Test
+    public void bundle() throws Exception {
+        StructureDefinitionParser parser = StructureDefinitionParser.getDefault();
+        Bundle bundle = new Bundle();
+        bundle.addEntry().setResource(parser.parse(getClass().getResourceAsStream("/ConditionWithExtension.xml")));
+        bundle.addEntry().setResource(parser.parse(getClass().getResourceAsStream("/condition-severity-score.xml")));
+        File file = new File(folder.getRoot(), "bundle.json");
+        Files.write(file.toPath(), parser.getContext().newJsonParser().encodeResourceToString(bundle).getBytes("UTF-8"));
+        assertGeneratesProfile(StructureDefinitionPackage.load(file));
+    }
+
+    private void assertGeneratesProfile(StructureDefinitionPackage structurePackage) throws Exception {
+        assertEquals(2, structurePackage.getUrls().size());
+        assertTrue(structurePackage.getUrls().contains(EXTENSION_URL));
+        assertEquals(Collections.singleton(PROFILE_URL), structurePackage.getProfileUrls());
+
+        List<StructureDefinitionProvider> providers = structurePackage.getProfileProviders("generated");
+        assertEquals(1, providers.size());
+        JavaClassSource javaClass = Generator.generate(providers.get(0));
+        assertEquals("ConditionWithExtension", javaClass.getName());
+        assertEquals("IntegerDt", javaClass.getField("mySeverityScore").getType().getName());
+    }
+
+    private byte[] resource(String name) throws Exception {
+        return IOUtils.toByteArray(getClass().getResourceAsStream(name));
+    }
+
+    private static void addTarEntry(TarArchiveOutputStream out, String name, byte[] content) throws Exception {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        out.putArchiveEntry(entry);
+        out.write(content);
+        out.closeArchiveEntry();
+    }
+}
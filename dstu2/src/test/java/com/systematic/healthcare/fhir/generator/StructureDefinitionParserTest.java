@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class StructureDefinitionParserTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void jsonDefinitionsAreDetected() throws Exception {
+        StructureDefinitionParser parser = StructureDefinitionParser.getDefault();
+        StructureDefinition xml;
+        try (InputStream in = getClass().getResourceAsStream("/FunctioningCondition.xml")) {
+            xml = parser.parse(in);
+        }
+        String json = parser.getContext().newJsonParser().encodeResourceToString(xml);
+        File jsonFile = new File(folder.getRoot(), "FunctioningCondition.json");
+        Files.write(jsonFile.toPath(), ("\n  " + json).getBytes("UTF-8"));
+
+        StructureDefinition parsed = new FileStructureDefinitionProvider("generated", jsonFile).getDefinition();
+        assertEquals(xml.getName(), parsed.getName());
+        assertEquals(xml.getDifferential().getElement().size(), parsed.getDifferential().getElement().size());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UrlContentCacheTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private byte[] profile;
+    private final AtomicInteger downloads = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    @Before
+    public void startServer() throws Exception {
+        profile = Files.readAllBytes(new File(getClass().getResource("/FunctioningCondition.xml").toURI()).toPath());
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    downloads.incrementAndGet();
+                    exchange.getResponseHeaders().add("ETag", ETAG);
+                    exchange.sendResponseHeaders(200, profile.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(profile);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private URL url() throws Exception {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/FunctioningCondition");
+    }
+
+    @Test
+    public void freshEntryIsServedFromDisk() throws Exception {
+        UrlContentCache cache = new UrlContentCache(folder.getRoot());
+        File first = cache.get(url());
+        File second = cache.get(url());
+        assertEquals(first, second);
+        assertArrayEquals(profile, Files.readAllBytes(second.toPath()));
+        assertEquals(1, downloads.get());
+        assertEquals(0, notModified.get());
+    }
+
+    @Test
+    public void expiredEntryIsRevalidated() throws Exception {
+        UrlContentCache cache = new UrlContentCache(folder.getRoot(), 0, false);
+        cache.get(url());
+        cache.get(url());
+        assertEquals(1, downloads.get());
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    public void offlineServesOnlyCachedContent() throws Exception {
+        new UrlContentCache(folder.getRoot()).get(url());
+        UrlContentCache offline = new UrlContentCache(folder.getRoot(), 0, true);
+        assertArrayEquals(profile, Files.readAllBytes(offline.get(url()).toPath()));
+        assertEquals(1, downloads.get());
+        try {
+            offline.get(new URL(url() + "-missing"));
+            fail("Expected uncached url to fail when offline");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void providerParsesCachedContent() throws Exception {
+        UrlStructureDefinitionProvider provider = new UrlStructureDefinitionProvider(
+                "com.systematic.healthcare.fhir.generator.generated", url().toString(), new UrlContentCache(folder.getRoot()));
+        assertEquals("FunctioningCondition", provider.getDefinition().getName());
+        assertEquals("FunctioningCondition", provider.getDefinition().getName());
+        assertEquals(1, downloads.get());
+    }
+}
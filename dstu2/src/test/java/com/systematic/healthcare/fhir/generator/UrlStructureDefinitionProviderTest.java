@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import ca.uhn.fhir.model.dstu2.composite.ElementDefinitionDt;
+import ca.uhn.fhir.model.dstu2.resource.StructureDefinition;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UrlStructureDefinitionProviderTest {
+
+    private static final String PACKAGE = "com.systematic.healthcare.fhir.generator.generated";
+    private static final int EXTENSIONS = 12;
+    private static final long LATENCY_MILLIS = 100;
+
+    private HttpServer server;
+    private byte[] extension;
+    private final AtomicInteger extensionRequests = new AtomicInteger();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maximumConcurrent = new AtomicInteger();
+
+    @Before
+    public void startServer() throws Exception {
+        extension = Files.readAllBytes(new File(getClass().getResource("/condition-severity-score.xml").toURI()).toPath());
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/profile", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, profile());
+            }
+        });
+        server.createContext("/extension/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                extensionRequests.incrementAndGet();
+                int running = concurrent.incrementAndGet();
+                synchronized (maximumConcurrent) {
+                    maximumConcurrent.set(Math.max(maximumConcurrent.get(), running));
+                }
+                try {
+                    Thread.sleep(LATENCY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+                respond(exchange, extension);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void extensionsAreFetchedOneByOneWithoutPrefetcher() throws Exception {
+        UrlStructureDefinitionProvider provider = new UrlStructureDefinitionProvider(PACKAGE, url("/profile"));
+
+        JavaClassSource javaClass = Generator.generate(provider);
+
+        assertEquals(EXTENSIONS, extensionFields(javaClass));
+        assertEquals(EXTENSIONS, extensionRequests.get());
+        assertEquals(1, maximumConcurrent.get());
+    }
+
+    @Test
+    public void extensionsArePrefetchedWithinTheHostLimit() throws Exception {
+        JavaClassSource javaClass;
+        try (ReferencePrefetcher prefetcher = new ReferencePrefetcher(4)) {
+            UrlStructureDefinitionProvider provider = new UrlStructureDefinitionProvider(PACKAGE, url("/profile"),
+                    StructureDefinitionParser.getDefault(), null, prefetcher);
+            javaClass = Generator.generate(provider);
+        }
+
+        assertEquals(EXTENSIONS, extensionFields(javaClass));
+        assertEquals(EXTENSIONS, extensionRequests.get());
+        assertTrue("maximum " + maximumConcurrent.get(), maximumConcurrent.get() > 1);
+        assertTrue("maximum " + maximumConcurrent.get(), maximumConcurrent.get() <= 4);
+    }
+
+    @Test
+    public void failedPrefetchIsReportedWhenTheExtensionIsResolved() throws Exception {
+        server.removeContext("/extension/");
+        try (ReferencePrefetcher prefetcher = new ReferencePrefetcher()) {
+            UrlStructureDefinitionProvider provider = new UrlStructureDefinitionProvider(PACKAGE, url("/profile"),
+                    StructureDefinitionParser.getDefault(), null, prefetcher);
+            Generator.generate(provider);
+            fail("Expected the missing extension to fail the conversion");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("/extension/0"));
+        }
+    }
+
+    /**
+     * ConditionWithExtension with {@link #EXTENSIONS} extensions, each with its own url on the stub server.
+     */
+    private byte[] profile() throws IOException {
+        StructureDefinitionParser parser = StructureDefinitionParser.getDefault();
+        StructureDefinition definition;
+        try {
+            definition = parser.parse(Files.newInputStream(new File(getClass().getResource("/ConditionWithExtension.xml").toURI()).toPath()));
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        for (ElementDefinitionDt element : definition.getDifferential().getElement()) {
+            if (element.getPath().equals("Condition.extension")) {
+                definition.getDifferential().getElement().remove(element);
+                break;
+            }
+        }
+        for (int i = 0; i < EXTENSIONS; i++) {
+            definition.getDifferential().addElement()
+                    .setPath("Condition.extension")
+                    .setName("severityScore" + i)
+                    .setMin(0)
+                    .setMax("1")
+                    .addType().setCode("Extension").addProfile(url("/extension/" + i));
+        }
+        return parser.getContext().newXmlParser().encodeResourceToString(definition).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int extensionFields(JavaClassSource javaClass) {
+        int count = 0;
+        for (int i = 0; i < EXTENSIONS; i++) {
+            if (javaClass.getField("mySeverityScore" + i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        exchange.close();
+    }
+}
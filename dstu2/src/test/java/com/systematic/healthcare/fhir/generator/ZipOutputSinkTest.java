@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.fhir.generator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class ZipOutputSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void archiveIsOnlyReplacedWhenAnEntryChanged() throws Exception {
+        File zip = new File(folder.getRoot(), "sources.jar");
+        write(zip, "class A {}", "class B {}");
+        assertTrue(zip.setLastModified(1000000000L));
+
+        ZipOutputSink unchanged = write(zip, "class A {}", "class B {}");
+        assertEquals(0, unchanged.getWrittenCount());
+        assertEquals(2, unchanged.getSkippedCount());
+        assertEquals(1000000000L, zip.lastModified());
+
+        ZipOutputSink changed = write(zip, "class A {}", "class B { }");
+        assertEquals(1, changed.getWrittenCount());
+        assertEquals(1, changed.getSkippedCount());
+        try (ZipFile archive = new ZipFile(zip)) {
+            assertEquals(2, archive.size());
+            assertEquals("class B { }".length(), archive.getEntry("p/B.java").getSize());
+        }
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    private static ZipOutputSink write(File zip, String a, String b) throws Exception {
+        ZipOutputSink sink = new ZipOutputSink(zip);
+        try {
+            sink.write("p/A.java", a.getBytes(StandardCharsets.UTF_8));
+            sink.write("p/B.java", b.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            sink.close();
+        }
+        return sink;
+    }
+}
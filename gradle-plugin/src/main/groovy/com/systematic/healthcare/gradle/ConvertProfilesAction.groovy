@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.gradle
+
+import com.systematic.healthcare.fhir.generator.CachingStructureDefinitionProvider
+import com.systematic.healthcare.fhir.generator.CompileDiagnostic
+import com.systematic.healthcare.fhir.generator.CompileVerifier
+import com.systematic.healthcare.fhir.generator.DirectoryOutputSink
+import com.systematic.healthcare.fhir.generator.FileStructureDefinitionProvider
+import com.systematic.healthcare.fhir.generator.GenerationEvent
+import com.systematic.healthcare.fhir.generator.GenerationListener
+import com.systematic.healthcare.fhir.generator.GenerationListeners
+import com.systematic.healthcare.fhir.generator.GenerationPhase
+import com.systematic.healthcare.fhir.generator.Generator
+import com.systematic.healthcare.fhir.generator.GeneratorOptions
+import com.systematic.healthcare.fhir.generator.JavaSourceEmitter
+import com.systematic.healthcare.fhir.generator.RecordingStructureDefinitionProvider
+import com.systematic.healthcare.fhir.generator.SourceEmitters
+import com.systematic.healthcare.fhir.generator.SourceFileWriter
+import com.google.common.hash.Hashing
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkAction
+import org.gradle.workers.WorkParameters
+import org.jboss.forge.roaster.model.source.JavaClassSource
+
+import java.nio.charset.StandardCharsets
+
+interface ConvertProfilesParameters extends WorkParameters {
+    ConfigurableFileCollection getProfiles()
+
+    Property<String> getPackageName()
+
+    Property<String> getEmitter()
+
+    Property<Boolean> getVerify()
+
+    Property<Boolean> getAllocationFreeAccessors()
+
+    DirectoryProperty getOutDirectory()
+
+    DirectoryProperty getResultDirectory()
+}
+
+/**
+ * Converts a group of profiles inside a Gradle worker. The outcome of each profile is written to a properties
+ * file in the result directory, where {@link StructureDetinitionToJavaTask} picks it up once all work is done.
+ */
+abstract class ConvertProfilesAction implements WorkAction<ConvertProfilesParameters> {
+    static final String PROFILE = 'profile'
+    static final String OUTPUT = 'output'
+    static final String WRITTEN = 'written'
+    static final String REFERENCE = 'reference.'
+    static final String FAILURE = 'failure'
+    static final String EVENT = 'event.'
+
+    private static final GenerationListener FLIGHT_RECORDER = GenerationListeners.flightRecorder()
+
+    @Override
+    void execute() {
+        // Shared by the profiles of this work item only. Extension definitions may have changed since the last
+        // execution, and other builds in the same daemon may use the same urls for other files.
+        CachingStructureDefinitionProvider.ReferenceCache referenceCache =
+                new CachingStructureDefinitionProvider.ReferenceCache(CachingStructureDefinitionProvider.DEFAULT_MAXIMUM_SIZE)
+        DirectoryOutputSink sink = new DirectoryOutputSink(parameters.outDirectory.get().asFile)
+        JavaSourceEmitter emitter = createEmitter(parameters.emitter.get())
+        GeneratorOptions options = new GeneratorOptions().setAllocationFreeAccessors(parameters.allocationFreeAccessors.get())
+        Map<File, Properties> results = [:]
+        Map<File, List<GenerationEvent>> events = [:]
+        Map<File, JavaClassSource> generated = [:]
+        parameters.profiles.files.each { File profile ->
+            Properties result = new Properties()
+            results.put(profile, result)
+            result.setProperty(PROFILE, profile.absolutePath)
+            events.put(profile, [])
+            FileStructureDefinitionProvider fileProvider = new FileStructureDefinitionProvider(parameters.packageName.get(), profile)
+            RecordingStructureDefinitionProvider provider = new RecordingStructureDefinitionProvider(
+                    new CachingStructureDefinitionProvider(fileProvider, referenceCache))
+            try {
+                generated.put(profile, Generator.generate(provider, listener(events.get(profile)), options))
+                provider.referencedUrls.eachWithIndex { String url, int i ->
+                    result.setProperty(REFERENCE + i, fileProvider.getReferenceFile(url).absolutePath)
+                }
+            } catch (Exception e) {
+                result.setProperty(FAILURE, stackTrace(e))
+            }
+        }
+        if (parameters.verify.get() && !generated.isEmpty()) {
+            // One compilation for the whole group, before anything is written, so sources that do not compile never
+            // reach the source set. Errors fail the profile they were generated from.
+            Map<String, File> generatedProfiles = generated.collectEntries { File profile, JavaClassSource javaClass -> [(javaClass.name): profile] }
+            new CompileVerifier().verify(generated.values()).groupBy { it.className }.each { String className, List<CompileDiagnostic> errors ->
+                // Errors outside the generated sources, e.g. a missing HAPI FHIR jar, fail every profile of the group
+                Collection<File> failed = generatedProfiles.containsKey(className) ? [generatedProfiles.get(className)] : generatedProfiles.values()
+                failed.each { File profile ->
+                    results.get(profile).setProperty(FAILURE, "Generated class does not compile:\n" + errors.join('\n'))
+                }
+            }
+        }
+        generated.each { File profile, JavaClassSource javaClass ->
+            Properties result = results.get(profile)
+            if (result.getProperty(FAILURE) != null) {
+                return
+            }
+            List<GenerationEvent> profileEvents = events.get(profile)
+            try {
+                boolean written = new SourceFileWriter(emitter, listener(profileEvents), sink).write(javaClass, profileEvents.find { it.phase == GenerationPhase.PARSE })
+                result.setProperty(OUTPUT, sink.getFile(SourceFileWriter.getPath(javaClass)).absolutePath)
+                result.setProperty(WRITTEN, String.valueOf(written))
+            } catch (IOException e) {
+                result.setProperty(FAILURE, stackTrace(e))
+            }
+        }
+        results.each { File profile, Properties result ->
+            storeEvents(events.get(profile), result)
+            File resultFile = new File(parameters.resultDirectory.get().asFile, resultFileName(profile))
+            resultFile.withOutputStream { OutputStream out -> result.store(out, null) }
+        }
+    }
+
+    static GenerationListener listener(List<GenerationEvent> events) {
+        GenerationListeners.compose({ GenerationEvent event -> events << event } as GenerationListener, FLIGHT_RECORDER)
+    }
+
+    static String stackTrace(Exception e) {
+        StringWriter stackTrace = new StringWriter()
+        e.printStackTrace(new PrintWriter(stackTrace))
+        stackTrace.toString()
+    }
+
+    static void storeEvents(List<GenerationEvent> events, Properties result) {
+        events.eachWithIndex { GenerationEvent event, int i ->
+            result.setProperty(EVENT + i, [event.phase, event.elementCount, event.durationNanos, event.allocatedBytes, event.profile].join(' '))
+        }
+    }
+
+    static List<GenerationEvent> loadEvents(Properties result) {
+        result.stringPropertyNames().findAll { it.startsWith(EVENT) }.collect { String key ->
+            String[] values = result.getProperty(key).split(' ', 5)
+            new GenerationEvent(values[4], GenerationPhase.valueOf(values[0]), values[1] as int, values[2] as long, values[3] as long)
+        }
+    }
+
+    static JavaSourceEmitter createEmitter(String name) {
+        SourceEmitters.forName(name)
+    }
+
+    static String resultFileName(File profile) {
+        Hashing.sha256().hashString(profile.absolutePath, StandardCharsets.UTF_8).toString() + '.properties'
+    }
+}
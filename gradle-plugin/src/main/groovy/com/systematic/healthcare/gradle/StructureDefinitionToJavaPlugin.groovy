@@ -28,6 +28,23 @@ class StructureDefinitionToJavaArg {
     String outDirectory
     @Input
     String packageName
+    // Number of Gradle work items the profiles are spread over. Unset submits one work item per profile.
+    Integer maxParallelism
+    // Worker isolation: 'none', 'classloader' or 'process'
+    String isolation = 'none'
+    // Source renderer: 'roaster' (default) formats with JDT, 'streaming' writes directly from the model
+    @Input
+    String emitter = 'roaster'
+    // Print the per phase timing and allocation summary at the end of the task, it is always logged at info level
+    boolean printSummary = false
+    // Compile the generated classes in memory and fail profiles whose output does not compile
+    boolean verify = false
+    // Generate isEmpty() and list accessors that do not allocate on reads, see GeneratorOptions
+    boolean allocationFreeAccessors = false
+    // Name of a registry class listing all generated profiles, generated into packageName. Unset generates none
+    String registryClass
+    // Port of a running generator daemon (see GeneratorDaemon) to convert with instead of Gradle workers
+    Integer daemonPort
 }
 class StructureDefinitionToJavaPlugin implements Plugin<Project> {
     void apply(Project project) {
@@ -15,36 +15,270 @@
  */
 package com.systematic.healthcare.gradle
 
-import com.systematic.healthcare.fhir.generator.FileStructureDefinitionProvider
-import com.systematic.healthcare.fhir.generator.Generator
-import com.systematic.healthcare.fhir.generator.StructureDefinitionProvider
+import com.systematic.healthcare.fhir.generator.DaemonRequest
+import com.systematic.healthcare.fhir.generator.DaemonResult
+import com.systematic.healthcare.fhir.generator.DirectoryOutputSink
+import com.systematic.healthcare.fhir.generator.GenerationListeners
+import com.systematic.healthcare.fhir.generator.GenerationManifest
+import com.systematic.healthcare.fhir.generator.GenerationSummary
+import com.systematic.healthcare.fhir.generator.GeneratorClient
+import com.systematic.healthcare.fhir.generator.GeneratorDaemon
+import com.systematic.healthcare.fhir.generator.ProfileRegistryGenerator
+import com.systematic.healthcare.fhir.generator.SourceEmitters
+import com.systematic.healthcare.fhir.generator.SourceFileWriter
 import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.file.FileCollection
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputDirectory
+import org.gradle.api.tasks.OutputFile
 import org.gradle.api.tasks.TaskAction
+import org.gradle.api.tasks.incremental.IncrementalTaskInputs
+import org.gradle.api.tasks.incremental.InputFileDetails
+import org.gradle.workers.WorkQueue
+import org.gradle.workers.WorkerExecutor
+import org.jboss.forge.roaster.Roaster
 import org.jboss.forge.roaster.model.source.JavaClassSource
 
-import java.nio.file.Files
+import javax.inject.Inject
 
 class StructureDetinitionToJavaTask extends DefaultTask {
 
+    private final WorkerExecutor workerExecutor
+
+    @Inject
+    StructureDetinitionToJavaTask(WorkerExecutor workerExecutor) {
+        this.workerExecutor = workerExecutor
+    }
+
+    @InputFiles
+    FileCollection getFiles() {
+        project.sdToJavaArg.files
+    }
+
+    /**
+     * The definitions referenced by the profiles during the last run, so changes to them re-run the task.
+     */
+    @InputFiles
+    FileCollection getReferencedFiles() {
+        project.files(GenerationManifest.load(getManifestFile()).dependencyFiles.findAll { it.isFile() })
+    }
+
+    @Input
+    String getPackageName() {
+        project.sdToJavaArg.packageName
+    }
+
+    @Input
+    String getEmitter() {
+        project.sdToJavaArg.emitter
+    }
+
+    @Input
+    boolean getVerify() {
+        project.sdToJavaArg.verify
+    }
+
+    @Input
+    boolean getAllocationFreeAccessors() {
+        project.sdToJavaArg.allocationFreeAccessors
+    }
+
+    @Input
+    @Optional
+    String getRegistryClass() {
+        project.sdToJavaArg.registryClass
+    }
+
+    @OutputDirectory
+    File getOutDirectory() {
+        project.file(project.sdToJavaArg.outDirectory)
+    }
+
+    @OutputFile
+    File getManifestFile() {
+        new File(project.buildDir, "sdToJava/${name}.manifest")
+    }
+
     @TaskAction
-    def convert() {
+    def convert(IncrementalTaskInputs inputs) {
         getLogger().info("------------ Convert -------------------")
         getLogger().info("Out folder: ${project.sdToJavaArg.outDirectory}")
         getLogger().info("Files: ${project.sdToJavaArg.files}")
-        project.sdToJavaArg.files.each { File f ->
-            getLogger().info("Converting file: ${f}")
-            StructureDefinitionProvider provider = new FileStructureDefinitionProvider(
-                    project.sdToJavaArg.packageName,
-                    f)
-            JavaClassSource javaClass = Generator.generate(provider)
-            File outDir = new File(project.sdToJavaArg.outDirectory);
-            for (String s : project.sdToJavaArg.packageName.split("\\.")) {
-                outDir = new File(outDir, s);
-            }
-            outDir.mkdirs()
-            Files.write(
-                    new File(outDir, javaClass.getName() + ".java").toPath(),
-                    javaClass.toString().getBytes("UTF-8"))
+        Set<File> profiles = getFiles().files
+        GenerationManifest manifest = GenerationManifest.load(getManifestFile())
+        Set<File> previousOutputs = []
+        if (!inputs.incremental) {
+            getLogger().info("Full regeneration")
+            // Outputs are only deleted once it is known they are not generated again, unchanged sources are not rewritten
+            manifest.profiles.each { File profile -> previousOutputs.addAll(manifest.remove(profile).outputs) }
+        }
+        // Changed content is detected from the hashes in the manifest, so touched but unchanged files are skipped
+        inputs.outOfDate { InputFileDetails change -> }
+        inputs.removed { InputFileDetails change ->
+            deleteOutputs(manifest.remove(change.file))
+        }
+        (manifest.profiles - profiles).each { File profile -> deleteOutputs(manifest.remove(profile)) }
+        Set<File> outOfDate = manifest.getOutOfDate(profiles)
+        getLogger().info("Converting ${outOfDate.size()} of ${profiles.size()} files")
+
+        File resultDir = new File(temporaryDir, "results")
+        project.delete(resultDir)
+        resultDir.mkdirs()
+        if (project.sdToJavaArg.daemonPort != null) {
+            convertWithDaemon(outOfDate, resultDir)
+        } else {
+            WorkQueue queue = createWorkQueue()
+            partition(outOfDate as List<File>).each { List<File> group ->
+                queue.submit(ConvertProfilesAction) { ConvertProfilesParameters parameters ->
+                    parameters.profiles.from(group)
+                    parameters.packageName.set(getPackageName())
+                    parameters.emitter.set(getEmitter())
+                    parameters.verify.set(getVerify())
+                    parameters.allocationFreeAccessors.set(getAllocationFreeAccessors())
+                    parameters.outDirectory.set(getOutDirectory())
+                    parameters.resultDirectory.set(resultDir)
+                }
+            }
+            queue.await()
+        }
+
+        Map<File, String> failures = [:]
+        GenerationSummary summary = new GenerationSummary()
+        int unchanged = 0
+        outOfDate.each { File profile ->
+            Properties result = new Properties()
+            new File(resultDir, ConvertProfilesAction.resultFileName(profile)).withInputStream { InputStream input -> result.load(input) }
+            ConvertProfilesAction.loadEvents(result).each { summary.phaseCompleted(it) }
+            if (result.getProperty(ConvertProfilesAction.FAILURE) != null) {
+                failures.put(profile, result.getProperty(ConvertProfilesAction.FAILURE))
+                deleteOutputs(manifest.remove(profile))
+                return
+            }
+            File outFile = new File(result.getProperty(ConvertProfilesAction.OUTPUT))
+            if (result.getProperty(ConvertProfilesAction.WRITTEN) == 'false') {
+                unchanged++
+            }
+            GenerationManifest.Entry previous = manifest.get(profile)
+            if (previous != null) {
+                deleteOutputs(previous.outputs - outFile)
+            }
+            GenerationManifest.Entry entry = new GenerationManifest.Entry(GenerationManifest.hash(profile))
+            entry.addOutput(outFile)
+            result.stringPropertyNames().findAll { it.startsWith(ConvertProfilesAction.REFERENCE) }.each { String key ->
+                entry.addDependency(new File(result.getProperty(key)))
+            }
+            manifest.put(profile, entry)
+        }
+        deleteOutputs(previousOutputs - manifest.profiles.collectMany { File profile -> manifest.get(profile).outputs as List })
+        manifest.store(getManifestFile())
+        getLogger().info("${outOfDate.size() - failures.size() - unchanged} sources written, ${unchanged} unchanged")
+        if (getRegistryClass() != null) {
+            writeRegistry(manifest)
+        }
+        if (!outOfDate.isEmpty()) {
+            if (project.sdToJavaArg.printSummary) {
+                getLogger().lifecycle(summary.report())
+            } else {
+                getLogger().info(summary.report())
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            failures.each { File profile, String failure ->
+                getLogger().error("Failed to convert file: ${profile}\n${failure}")
+            }
+            throw new GradleException("Failed to convert ${failures.size()} of ${outOfDate.size()} files")
+        }
+    }
+
+    /**
+     * Converts the profiles in a running {@link GeneratorDaemon}, writing the same result files as the workers.
+     */
+    private void convertWithDaemon(Set<File> profiles, File resultDir) {
+        if (profiles.isEmpty()) {
+            return
+        }
+        GeneratorClient client = new GeneratorClient(project.sdToJavaArg.daemonPort as int)
+        DaemonRequest request = new DaemonRequest(getPackageName(), profiles)
+                .setEmitter(getEmitter())
+                .setOutDirectory(getOutDirectory())
+                .setAllocationFreeAccessors(getAllocationFreeAccessors())
+                .setVerify(getVerify())
+        List<DaemonResult> results
+        try {
+            results = client.generate(request)
+        } catch (IOException e) {
+            throw new GradleException("No generator daemon on port ${project.sdToJavaArg.daemonPort}", e)
+        }
+        results.each { DaemonResult daemonResult ->
+            Properties result = new Properties()
+            result.setProperty(ConvertProfilesAction.PROFILE, daemonResult.profile.absolutePath)
+            if (daemonResult.success) {
+                result.setProperty(ConvertProfilesAction.OUTPUT, daemonResult.outputFile.absolutePath)
+                daemonResult.referencedFiles.eachWithIndex { File file, int i ->
+                    result.setProperty(ConvertProfilesAction.REFERENCE + i, file.absolutePath)
+                }
+            } else {
+                result.setProperty(ConvertProfilesAction.FAILURE, daemonResult.failure)
+            }
+            ConvertProfilesAction.storeEvents(daemonResult.events, result)
+            File resultFile = new File(resultDir, ConvertProfilesAction.resultFileName(daemonResult.profile))
+            resultFile.withOutputStream { OutputStream out -> result.store(out, null) }
+        }
+    }
+
+    /**
+     * Regenerates the registry from the sources of all profiles in the manifest, including those not converted in
+     * this run.
+     */
+    private void writeRegistry(GenerationManifest manifest) {
+        List<JavaClassSource> profiles = manifest.profiles.collectMany { File profile -> manifest.get(profile).outputs as List }
+                .findAll { File output -> output.isFile() }
+                .collect { File output -> Roaster.parse(JavaClassSource, output) }
+        JavaClassSource registry = ProfileRegistryGenerator.generate(getPackageName(), getRegistryClass(), profiles)
+        new SourceFileWriter(SourceEmitters.forName(getEmitter()), GenerationListeners.NONE, new DirectoryOutputSink(getOutDirectory()))
+                .write(registry, null)
+    }
+
+    private WorkQueue createWorkQueue() {
+        switch (project.sdToJavaArg.isolation) {
+            case 'process':
+                return workerExecutor.processIsolation()
+            case 'classloader':
+                return workerExecutor.classLoaderIsolation()
+            case 'none':
+            case null:
+                return workerExecutor.noIsolation()
+            default:
+                throw new GradleException("Unknown isolation '${project.sdToJavaArg.isolation}', use none, classloader or process")
+        }
+    }
+
+    /**
+     * Splits the profiles into maxParallelism work items, or one work item per profile if it is not set.
+     */
+    private List<List<File>> partition(List<File> profiles) {
+        Integer maxParallelism = project.sdToJavaArg.maxParallelism
+        if (maxParallelism == null || maxParallelism < 1 || profiles.isEmpty()) {
+            return profiles.collect { [it] }
+        }
+        int groupSize = (int) Math.ceil(profiles.size() / (double) maxParallelism)
+        return profiles.collate(groupSize)
+    }
+
+    private void deleteOutputs(GenerationManifest.Entry entry) {
+        if (entry != null) {
+            deleteOutputs(entry.outputs)
+        }
+    }
+
+    private void deleteOutputs(Collection<File> outputs) {
+        outputs.each { File output ->
+            getLogger().info("Deleting stale output: ${output}")
+            output.delete()
         }
     }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 Systematic A/S
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.systematic.healthcare.gradle
+
+import com.systematic.healthcare.fhir.generator.SourceEmitters
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.file.Directory
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.provider.Property
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class ConvertProfilesActionTest {
+    private static final String PACKAGE = 'com.systematic.healthcare.fhir.generator.generated'
+    private static final String PACKAGE_PATH = PACKAGE.replace('.', '/')
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    @Test
+    void convertsProfilesIntoTheOutDirectory() {
+        File profile = resource('/FunctioningCondition.xml')
+        File outDirectory = folder.newFolder()
+        File resultDirectory = folder.newFolder()
+
+        action([profile], true, outDirectory, resultDirectory).execute()
+
+        Properties result = result(resultDirectory, profile)
+        assertNull(result.getProperty(ConvertProfilesAction.FAILURE))
+        File output = new File(outDirectory, "${PACKAGE_PATH}/FunctioningCondition.java")
+        assertEquals(output.absolutePath, result.getProperty(ConvertProfilesAction.OUTPUT))
+        assertEquals('true', result.getProperty(ConvertProfilesAction.WRITTEN))
+        assertTrue(output.isFile())
+        assertFalse(ConvertProfilesAction.loadEvents(result).isEmpty())
+    }
+
+    @Test
+    void sourcesThatDoNotCompileAreNotWritten() {
+        File compiling = resource('/FunctioningCondition.xml')
+        // The generated class Condition clashes with the HAPI FHIR class it extends
+        File failing = resource('/ConditionNamedCondition.xml')
+        File outDirectory = folder.newFolder()
+        File resultDirectory = folder.newFolder()
+
+        action([compiling, failing], true, outDirectory, resultDirectory).execute()
+
+        Properties failed = result(resultDirectory, failing)
+        assertTrue(failed.getProperty(ConvertProfilesAction.FAILURE).startsWith('Generated class does not compile'))
+        assertNull(failed.getProperty(ConvertProfilesAction.OUTPUT))
+        assertFalse(new File(outDirectory, "${PACKAGE_PATH}/Condition.java").exists())
+        assertNull(result(resultDirectory, compiling).getProperty(ConvertProfilesAction.FAILURE))
+        assertTrue(new File(outDirectory, "${PACKAGE_PATH}/FunctioningCondition.java").isFile())
+    }
+
+    private File resource(String name) {
+        File file = new File(folder.root, name.substring(1))
+        file.bytes = getClass().getResourceAsStream(name).bytes
+        file
+    }
+
+    private static Properties result(File resultDirectory, File profile) {
+        Properties result = new Properties()
+        new File(resultDirectory, ConvertProfilesAction.resultFileName(profile)).withInputStream { InputStream input -> result.load(input) }
+        result
+    }
+
+    /**
+     * An action as the worker API creates it, with the parameters the task would set.
+     */
+    private static ConvertProfilesAction action(List<File> profiles, boolean verify, File outDirectory, File resultDirectory) {
+        ConvertProfilesParameters parameters = [
+                getProfiles               : { [getFiles: { profiles as Set }] as ConfigurableFileCollection },
+                getPackageName            : { property(PACKAGE) },
+                getEmitter                : { property(SourceEmitters.ROASTER) },
+                getVerify                 : { property(verify) },
+                getAllocationFreeAccessors: { property(false) },
+                getOutDirectory           : { directory(outDirectory) },
+                getResultDirectory        : { directory(resultDirectory) }
+        ] as ConvertProfilesParameters
+        new ConvertProfilesAction() {
+            @Override
+            ConvertProfilesParameters getParameters() {
+                parameters
+            }
+        }
+    }
+
+    private static Property property(Object value) {
+        [get: { value }] as Property
+    }
+
+    private static DirectoryProperty directory(File file) {
+        [get: { [getAsFile: { file }] as Directory }] as DirectoryProperty
+    }
+}